@@ -2,6 +2,8 @@ package com.courserec.rating.controller;
 
 import com.courserec.rating.model.Rating;
 import com.courserec.rating.model.dto.ErrorResponse;
+import com.courserec.rating.model.dto.RatingExportResponse;
+import com.courserec.rating.model.dto.RatingFrameCodec;
 import com.courserec.rating.model.dto.RatingPageResponse;
 import com.courserec.rating.model.dto.RatingResponse;
 import com.courserec.rating.model.dto.SubmitRatingRequest;
@@ -9,6 +11,8 @@ import com.courserec.rating.security.JwtTokenValidator;
 import com.courserec.rating.service.RatingService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,8 +23,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -32,12 +39,14 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/v1/ratings")
 @Tag(name = "Ratings", description = "Rating submission and retrieval endpoints")
 public class RatingController {
   private static final Logger logger = LoggerFactory.getLogger(RatingController.class);
+  private static final int MAX_EXPORT_SIZE = 5000;
   private final RatingService ratingService;
   private final JwtTokenValidator jwtTokenValidator;
 
@@ -122,6 +131,91 @@ public class RatingController {
     }
   }
 
+  @GetMapping(value = "/export", produces = MediaType.APPLICATION_JSON_VALUE)
+  @Operation(
+      summary = "Export ratings",
+      description =
+          "Streams all ratings in id order using keyset pagination. Pass the returned nextCursor as"
+              + " 'after' to fetch the next chunk.")
+  @ApiResponses(
+      value = {
+        @ApiResponse(responseCode = "200", description = "Chunk of ratings returned"),
+        @ApiResponse(responseCode = "400", description = "Invalid chunk size")
+      })
+  public ResponseEntity<?> exportRatings(
+      @RequestParam(required = false) UUID after,
+      @RequestParam(defaultValue = "1000") int size) {
+    logger.debug("Exporting ratings - after: {}, size: {}", after, size);
+    ResponseEntity<ErrorResponse> invalidSize = validateExportSize(size);
+    if (invalidSize != null) {
+      return invalidSize;
+    }
+
+    Slice<Rating> ratings = ratingService.exportRatings(after, size);
+    List<RatingResponse> content =
+        ratings.getContent().stream().map(RatingResponse::new).collect(Collectors.toList());
+    UUID nextCursor = content.isEmpty() ? after : content.get(content.size() - 1).getId();
+
+    return ResponseEntity.ok(new RatingExportResponse(content, nextCursor, ratings.hasNext()));
+  }
+
+  @GetMapping(value = "/export", produces = RatingFrameCodec.MEDIA_TYPE)
+  @Operation(
+      summary = "Export ratings as binary frames",
+      description =
+          "Streams every rating after the optional cursor in one response, encoded as"
+              + " length-prefixed binary frames of one chunk each.")
+  public ResponseEntity<StreamingResponseBody> exportRatingFrames(
+      @RequestParam(required = false) UUID after,
+      @RequestParam(defaultValue = "1000") int size) {
+    logger.debug("Exporting rating frames - after: {}, size: {}", after, size);
+    // The declared body type selects the streaming handler, so the error leaves as an exception
+    if (validateExportSize(size) != null) {
+      throw new InvalidExportSizeException(size);
+    }
+
+    // Every chunk is read in its own short transaction, so only one chunk is held in memory
+    StreamingResponseBody body =
+        outputStream -> {
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+          UUID cursor = after;
+          Slice<Rating> chunk;
+          do {
+            chunk = ratingService.exportRatings(cursor, size);
+            RatingFrameCodec.writeFrame(out, chunk.getContent());
+            if (chunk.hasContent()) {
+              cursor = chunk.getContent().get(chunk.getNumberOfElements() - 1).getId();
+            }
+          } while (chunk.hasNext());
+          RatingFrameCodec.writeEnd(out);
+          out.flush();
+        };
+
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(RatingFrameCodec.MEDIA_TYPE))
+        .body(body);
+  }
+
+  /** Returns a 400 response for an out-of-range export chunk size, or null when it is valid. */
+  private ResponseEntity<ErrorResponse> validateExportSize(int size) {
+    if (size >= 1 && size <= MAX_EXPORT_SIZE) {
+      return null;
+    }
+    Map<String, Object> details = new HashMap<>();
+    details.put("size", size);
+    // JSON even when binary frames were requested
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(
+            new ErrorResponse(
+                "INVALID_SIZE", "Size must be between 1 and " + MAX_EXPORT_SIZE, details));
+  }
+
+  @ExceptionHandler(InvalidExportSizeException.class)
+  public ResponseEntity<ErrorResponse> handleInvalidExportSize(InvalidExportSizeException e) {
+    return validateExportSize(e.size);
+  }
+
   @GetMapping("/{ratingId}")
   public ResponseEntity<?> getRating(@PathVariable UUID ratingId) {
     logger.info("Getting rating by id: {}", ratingId);
@@ -136,6 +230,15 @@ public class RatingController {
     }
   }
 
+  private static class InvalidExportSizeException extends RuntimeException {
+    private final int size;
+
+    InvalidExportSizeException(int size) {
+      super("Invalid export size: " + size);
+      this.size = size;
+    }
+  }
+
   private String getTokenFromRequest(HttpServletRequest request) {
     String bearerToken = request.getHeader("Authorization");
     if (bearerToken != null && bearerToken.startsWith("Bearer ")) {
@@ -0,0 +1,42 @@
+package com.courserec.rating.model.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+public class RatingExportResponse {
+  private List<RatingResponse> content;
+  private UUID nextCursor;
+  private boolean hasNext;
+
+  public RatingExportResponse() {}
+
+  public RatingExportResponse(List<RatingResponse> content, UUID nextCursor, boolean hasNext) {
+    this.content = content;
+    this.nextCursor = nextCursor;
+    this.hasNext = hasNext;
+  }
+
+  public List<RatingResponse> getContent() {
+    return content;
+  }
+
+  public void setContent(List<RatingResponse> content) {
+    this.content = content;
+  }
+
+  public UUID getNextCursor() {
+    return nextCursor;
+  }
+
+  public void setNextCursor(UUID nextCursor) {
+    this.nextCursor = nextCursor;
+  }
+
+  public boolean isHasNext() {
+    return hasNext;
+  }
+
+  public void setHasNext(boolean hasNext) {
+    this.hasNext = hasNext;
+  }
+}
@@ -0,0 +1,41 @@
+package com.courserec.rating.model.dto;
+
+import com.courserec.rating.model.Rating;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compact binary encoding for bulk rating transfer.
+ *
+ * <p>The stream is a sequence of frames, each prefixed with its payload length in bytes as a
+ * big-endian int. A payload holds fixed-size records of user id (two longs), course id (two longs)
+ * and rating value (one byte). A zero length marks the end of the stream.
+ */
+public final class RatingFrameCodec {
+  public static final String MEDIA_TYPE = "application/x-rating-frames";
+  private static final int UUID_SIZE = 2 * Long.BYTES;
+
+  /** Bytes per record: user id, course id, rating value. */
+  public static final int RECORD_SIZE = 2 * UUID_SIZE + Byte.BYTES;
+
+  private RatingFrameCodec() {}
+
+  public static void writeFrame(DataOutputStream out, List<Rating> ratings) throws IOException {
+    if (ratings.isEmpty()) {
+      return;
+    }
+    out.writeInt(ratings.size() * RECORD_SIZE);
+    for (Rating rating : ratings) {
+      out.writeLong(rating.getUserId().getMostSignificantBits());
+      out.writeLong(rating.getUserId().getLeastSignificantBits());
+      out.writeLong(rating.getCourseId().getMostSignificantBits());
+      out.writeLong(rating.getCourseId().getLeastSignificantBits());
+      out.writeByte(rating.getRatingValue());
+    }
+  }
+
+  public static void writeEnd(DataOutputStream out) throws IOException {
+    out.writeInt(0);
+  }
+}
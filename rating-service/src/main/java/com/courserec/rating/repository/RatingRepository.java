@@ -6,6 +6,7 @@ import java.util.Optional;
 import java.util.UUID;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -24,5 +25,10 @@ public interface RatingRepository extends JpaRepository<Rating, UUID> {
       @Param("userId") UUID userId, @Param("courseId") UUID courseId, Pageable pageable);
 
   List<Rating> findByUserId(UUID userId);
+
+  // Keyset pagination for bulk export: Slice skips the COUNT(*) query a Page would run
+  Slice<Rating> findSliceBy(Pageable pageable);
+
+  Slice<Rating> findByIdGreaterThan(UUID id, Pageable pageable);
 }
 
@@ -11,7 +11,10 @@ import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -98,6 +101,19 @@ public class RatingService {
     return ratingRepository.findAll(pageable);
   }
 
+  /**
+   * Returns the next chunk of ratings ordered by id, starting after the given cursor. Each call
+   * reads one index range, so exporting every rating needs constant memory per request.
+   */
+  @Transactional(readOnly = true)
+  public Slice<Rating> exportRatings(UUID after, int size) {
+    Pageable pageable = PageRequest.of(0, size, Sort.by("id"));
+    if (after == null) {
+      return ratingRepository.findSliceBy(pageable);
+    }
+    return ratingRepository.findByIdGreaterThan(after, pageable);
+  }
+
   public Rating getRatingById(UUID ratingId) {
     return ratingRepository
         .findById(ratingId)
@@ -0,0 +1,45 @@
+package com.courserec.rating.contract;
+
+import com.courserec.rating.model.Rating;
+import com.courserec.rating.model.dto.RatingFrameCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingFrameContractTest {
+
+  @Test
+  void testRatingFrameLayout() throws Exception {
+    Rating rating = new Rating();
+    rating.setUserId(UUID.randomUUID());
+    rating.setCourseId(UUID.randomUUID());
+    rating.setRatingValue(4);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    RatingFrameCodec.writeFrame(out, List.of(rating, rating));
+    RatingFrameCodec.writeEnd(out);
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    assertEquals(4 + 2 * RatingFrameCodec.RECORD_SIZE + 4, buffer.remaining());
+    assertEquals(2 * RatingFrameCodec.RECORD_SIZE, buffer.getInt());
+    assertEquals(rating.getUserId(), new UUID(buffer.getLong(), buffer.getLong()));
+    assertEquals(rating.getCourseId(), new UUID(buffer.getLong(), buffer.getLong()));
+    assertEquals(4, buffer.get());
+    buffer.position(buffer.position() + RatingFrameCodec.RECORD_SIZE);
+    assertEquals(0, buffer.getInt());
+  }
+
+  @Test
+  void testEmptyChunkWritesNoFrame() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    RatingFrameCodec.writeFrame(new DataOutputStream(bytes), List.of());
+
+    assertEquals(0, bytes.size());
+  }
+}
@@ -0,0 +1,136 @@
+package com.courserec.rating.unit.controller;
+
+import com.courserec.rating.controller.RatingController;
+import com.courserec.rating.model.Rating;
+import com.courserec.rating.model.dto.RatingFrameCodec;
+import com.courserec.rating.security.JwtTokenValidator;
+import com.courserec.rating.service.RatingService;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(RatingController.class)
+@AutoConfigureMockMvc(addFilters = false)
+class RatingControllerTest {
+  @Autowired private MockMvc mockMvc;
+
+  @MockBean private RatingService ratingService;
+  @MockBean private JwtTokenValidator jwtTokenValidator;
+
+  @Test
+  void testExportReturnsCursorOfLastRating() throws Exception {
+    Rating first = rating(4);
+    Rating last = rating(5);
+    when(ratingService.exportRatings(null, 2))
+        .thenReturn(new SliceImpl<>(List.of(first, last), PageRequest.of(0, 2), true));
+
+    mockMvc
+        .perform(get("/api/v1/ratings/export").param("size", "2").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+        .andExpect(jsonPath("$.content.length()").value(2))
+        .andExpect(jsonPath("$.nextCursor").value(last.getId().toString()))
+        .andExpect(jsonPath("$.hasNext").value(true));
+  }
+
+  @Test
+  void testExportOfEmptyChunkKeepsCursor() throws Exception {
+    UUID after = UUID.randomUUID();
+    when(ratingService.exportRatings(after, 1000))
+        .thenReturn(new SliceImpl<>(List.of(), PageRequest.of(0, 1000), false));
+
+    mockMvc
+        .perform(get("/api/v1/ratings/export").param("after", after.toString()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.content.length()").value(0))
+        .andExpect(jsonPath("$.nextCursor").value(after.toString()))
+        .andExpect(jsonPath("$.hasNext").value(false));
+  }
+
+  @Test
+  void testExportRejectsInvalidSize() throws Exception {
+    mockMvc
+        .perform(get("/api/v1/ratings/export").param("size", "0"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.error.code").value("INVALID_SIZE"))
+        .andExpect(jsonPath("$.error.details.size").value(0));
+
+    verify(ratingService, never()).exportRatings(any(), anyInt());
+  }
+
+  @Test
+  void testFrameExportRejectsInvalidSizeAsJson() throws Exception {
+    mockMvc
+        .perform(
+            get("/api/v1/ratings/export")
+                .param("size", "5001")
+                .accept(MediaType.parseMediaType(RatingFrameCodec.MEDIA_TYPE)))
+        .andExpect(status().isBadRequest())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+        .andExpect(jsonPath("$.error.code").value("INVALID_SIZE"));
+
+    verify(ratingService, never()).exportRatings(any(), anyInt());
+  }
+
+  @Test
+  void testFrameExportFollowsCursorAcrossChunks() throws Exception {
+    Rating first = rating(3);
+    Rating second = rating(5);
+    when(ratingService.exportRatings(null, 1))
+        .thenReturn(new SliceImpl<>(List.of(first), PageRequest.of(0, 1), true));
+    when(ratingService.exportRatings(first.getId(), 1))
+        .thenReturn(new SliceImpl<>(List.of(second), PageRequest.of(0, 1), false));
+
+    MvcResult started =
+        mockMvc
+            .perform(
+                get("/api/v1/ratings/export")
+                    .param("size", "1")
+                    .accept(MediaType.parseMediaType(RatingFrameCodec.MEDIA_TYPE)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    MvcResult result =
+        mockMvc
+            .perform(asyncDispatch(started))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(RatingFrameCodec.MEDIA_TYPE))
+            .andReturn();
+
+    ByteBuffer buffer = ByteBuffer.wrap(result.getResponse().getContentAsByteArray());
+    assertEquals(RatingFrameCodec.RECORD_SIZE, buffer.getInt());
+    assertEquals(first.getUserId(), new UUID(buffer.getLong(), buffer.getLong()));
+    buffer.position(buffer.position() + RatingFrameCodec.RECORD_SIZE - 16);
+    assertEquals(RatingFrameCodec.RECORD_SIZE, buffer.getInt());
+    assertEquals(second.getUserId(), new UUID(buffer.getLong(), buffer.getLong()));
+    buffer.position(buffer.position() + RatingFrameCodec.RECORD_SIZE - 16);
+    assertEquals(0, buffer.getInt());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  private Rating rating(int ratingValue) {
+    Rating rating = new Rating();
+    rating.setId(UUID.randomUUID());
+    rating.setUserId(UUID.randomUUID());
+    rating.setCourseId(UUID.randomUUID());
+    rating.setRatingValue(ratingValue);
+    return rating;
+  }
+}
@@ -6,6 +6,7 @@ import com.courserec.rating.kafka.RatingEventProducer;
 import com.courserec.rating.model.Rating;
 import com.courserec.rating.repository.RatingRepository;
 import com.courserec.rating.service.RatingService;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,9 +15,13 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -95,5 +100,20 @@ class RatingServiceTest {
     assertEquals(5, result.getRatingValue());
     verify(ratingRepository).save(existingRating);
   }
-}
 
+  @Test
+  void testExportRatingsStartsAfterCursor() {
+    UUID cursor = UUID.randomUUID();
+    Rating rating = new Rating();
+    rating.setUserId(userId);
+    rating.setCourseId(courseId);
+    rating.setRatingValue(4);
+    when(ratingRepository.findByIdGreaterThan(eq(cursor), any(Pageable.class)))
+        .thenReturn(new SliceImpl<>(List.of(rating)));
+
+    Slice<Rating> result = ratingService.exportRatings(cursor, 100);
+
+    assertEquals(1, result.getNumberOfElements());
+    verify(ratingRepository, never()).findSliceBy(any());
+  }
+}
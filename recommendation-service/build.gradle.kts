@@ -24,6 +24,7 @@ val jjwtVersion = "0.12.3"
 val kotestVersion = "5.8.0"
 val testcontainersVersion = "1.19.3"
 val kotlinxSerializationVersion = "1.6.0"
+val micrometerVersion = "1.12.1"
 
 dependencies {
     // Ktor
@@ -64,17 +65,25 @@ dependencies {
     implementation("org.jetbrains.kotlinx:kotlinx-serialization-json:$kotlinxSerializationVersion")
     implementation("org.jetbrains.kotlinx:kotlinx-datetime:0.5.0")
     
+    // Caching
+    implementation("com.github.ben-manes.caffeine:caffeine:3.1.8")
+
+    // Metrics
+    implementation("io.micrometer:micrometer-registry-prometheus:$micrometerVersion")
+
     // Logging
     implementation("ch.qos.logback:logback-classic:1.4.14")
     
     // Testing
     testImplementation("io.ktor:ktor-server-tests-jvm:$ktorVersion")
+    testImplementation("io.ktor:ktor-client-mock-jvm:$ktorVersion")
     testImplementation("io.kotest:kotest-runner-junit5:$kotestVersion")
     testImplementation("io.kotest:kotest-assertions-core:$kotestVersion")
     testImplementation("org.testcontainers:testcontainers:$testcontainersVersion")
     testImplementation("org.testcontainers:postgresql:$testcontainersVersion")
     testImplementation("org.testcontainers:kafka:$testcontainersVersion")
     testImplementation("org.jetbrains.kotlin:kotlin-test-junit5:$kotlinVersion")
+    testImplementation("com.h2database:h2:2.2.224")
 }
 
 application {
@@ -99,10 +108,23 @@ tasks.withType<KotlinCompile> {
 }
 
 tasks.test {
-    useJUnitPlatform()
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
     finalizedBy(tasks.jacocoTestReport)
 }
 
+tasks.register<Test>("benchmark") {
+    description = "Runs the benchmarks excluded from test"
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    testLogging.showStandardStreams = true
+}
+
 tasks.jacocoTestReport {
     dependsOn(tasks.test)
     reports {
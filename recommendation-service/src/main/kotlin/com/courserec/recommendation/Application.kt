@@ -4,23 +4,45 @@ import com.courserec.recommendation.client.CourseServiceClient
 import com.courserec.recommendation.client.createHttpClient
 import com.courserec.recommendation.client.RatingServiceClient
 import com.courserec.recommendation.config.configureCorrelationId
+import com.courserec.recommendation.config.configureMetrics
 import com.courserec.recommendation.database.configureDatabase
+import com.courserec.recommendation.database.createDatabaseDispatcher
 import com.courserec.recommendation.database.initializeDatabase
 import com.courserec.recommendation.kafka.RatingEventConsumer
 import com.courserec.recommendation.kafka.getKafkaConfig
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.RatingMatrixLoader
+import com.courserec.recommendation.repository.RecommendationGenerationCollector
 import com.courserec.recommendation.repository.RecommendationRepository
+import com.courserec.recommendation.repository.RecommendationSnapshotRepository
+import com.courserec.recommendation.repository.RecommendationStore
+import com.courserec.recommendation.repository.RecommendationWriteBehind
 import com.courserec.recommendation.routes.configureRecommendationRoutes
+import com.courserec.recommendation.service.ExactNeighborSearch
+import com.courserec.recommendation.service.ItemBasedEngine
+import com.courserec.recommendation.service.ItemSimilarityModel
+import com.courserec.recommendation.service.LshNeighborSearch
+import com.courserec.recommendation.service.MatrixFactorizationEngine
+import com.courserec.recommendation.service.MatrixFactorizationModel
+import com.courserec.recommendation.service.NeighborSearch
+import com.courserec.recommendation.service.PopularityTable
 import com.courserec.recommendation.service.RecommendationAlgorithm
+import com.courserec.recommendation.service.RecommendationEngine
+import com.courserec.recommendation.service.RecommendationRefresher
 import com.courserec.recommendation.service.RecommendationService
+import com.courserec.recommendation.service.UserBasedEngine
 import io.ktor.server.application.Application
+import io.ktor.server.application.ApplicationStopped
 import io.ktor.server.application.install
 import io.ktor.server.engine.embeddedServer
 import io.ktor.server.netty.Netty
 import io.ktor.server.plugins.callloging.CallLogging
 import io.ktor.server.plugins.contentnegotiation.ContentNegotiation
 import io.ktor.serialization.kotlinx.json.json
+import kotlinx.coroutines.launch
 import kotlinx.serialization.json.Json
 import org.slf4j.event.Level
+import java.util.concurrent.ForkJoinPool
 
 fun main(args: Array<String>) {
     embeddedServer(Netty, port = 8084, host = "0.0.0.0", module = Application::module)
@@ -28,8 +50,11 @@ fun main(args: Array<String>) {
 }
 
 fun Application.module() {
+    // Prometheus metrics on /metrics
+    val meterRegistry = configureMetrics()
+
     // Database configuration
-    configureDatabase()
+    val dataSource = configureDatabase(meterRegistry)
     initializeDatabase()
 
     // Content Negotiation for JSON
@@ -63,25 +88,182 @@ fun Application.module() {
     val httpClient = createHttpClient()
 
     // Create clients
-    val courseServiceClient = CourseServiceClient(httpClient, courseServiceUrl)
-    val ratingServiceClient = RatingServiceClient(httpClient, ratingServiceUrl)
+    val courseServiceClient = CourseServiceClient(httpClient, courseServiceUrl, meterRegistry)
+    val ratingBinaryExport = System.getenv("RATING_SERVICE_BINARY_EXPORT")?.toBoolean()
+        ?: environment.config.propertyOrNull("services.ratingService.binaryExport")?.getString()?.toBoolean()
+        ?: false
+    val ratingServiceClient = RatingServiceClient(httpClient, ratingServiceUrl, ratingBinaryExport)
+
+    // Resident rating matrix, bootstrapped from rating-service and kept current by Kafka events
+    val ratingMatrix = RatingMatrix()
+    val ratingMatrixLoader = RatingMatrixLoader(ratingMatrix, ratingServiceClient)
+    val popularityTable = PopularityTable()
+    ratingMatrix.addListener(popularityTable)
 
     // Create services
-    val recommendationRepository = RecommendationRepository()
-    val recommendationAlgorithm = RecommendationAlgorithm()
+    // Blocking JDBC work runs on its own bounded dispatcher, one thread per pooled connection
+    val databaseDispatcher = createDatabaseDispatcher(dataSource, meterRegistry)
+    // rows: one row per recommended course, snapshot: one packed row per user
+    val storageMode = environment.config.propertyOrNull("recommendation.storage.mode")?.getString()
+        ?: RecommendationStore.ROWS
+    var generationCollector: RecommendationGenerationCollector? = null
+    val recommendationStore = when (storageMode) {
+        RecommendationStore.ROWS -> RecommendationRepository(databaseDispatcher).also { repository ->
+            // Each save writes a new generation, the superseded ones are deleted here
+            generationCollector = RecommendationGenerationCollector(
+                repository,
+                meterRegistry,
+                adoptUnversionedForMs = environment.config.propertyOrNull("recommendation.storage.adoptUnversionedForMs")
+                    ?.getString()?.toLong()
+                    ?: RecommendationGenerationCollector.DEFAULT_ADOPT_UNVERSIONED_FOR_MS
+            ).also {
+                it.start(
+                    environment.config.propertyOrNull("recommendation.storage.collectIntervalMs")?.getString()?.toLong()
+                        ?: RecommendationGenerationCollector.DEFAULT_INTERVAL_MS
+                )
+            }
+        }
+        RecommendationStore.SNAPSHOT -> RecommendationSnapshotRepository(databaseDispatcher)
+        else -> throw IllegalArgumentException("Unknown recommendation storage mode: $storageMode")
+    }
+    val recommendationWriteBehind = RecommendationWriteBehind(
+        recommendationStore,
+        meterRegistry,
+        capacity = environment.config.propertyOrNull("recommendation.writeBehind.capacity")?.getString()?.toInt()
+            ?: RecommendationWriteBehind.DEFAULT_CAPACITY,
+        batchSize = environment.config.propertyOrNull("recommendation.writeBehind.batchSize")?.getString()?.toInt()
+            ?: RecommendationWriteBehind.DEFAULT_BATCH_SIZE,
+        flushIntervalMs = environment.config.propertyOrNull("recommendation.writeBehind.flushIntervalMs")?.getString()?.toLong()
+            ?: RecommendationWriteBehind.DEFAULT_FLUSH_INTERVAL_MS
+    ).also { it.start() }
+    val similarityParallelism = environment.config.propertyOrNull("recommendation.similarity.parallelism")?.getString()?.toInt()
+        ?: Runtime.getRuntime().availableProcessors()
+    val similarityParallelThreshold = environment.config.propertyOrNull("recommendation.similarity.parallelThreshold")?.getString()?.toInt()
+        ?: RecommendationAlgorithm.DEFAULT_PARALLEL_THRESHOLD
+    val similarityPool = ForkJoinPool(similarityParallelism)
+    val recommendationAlgorithm = RecommendationAlgorithm(similarityPool, similarityParallelThreshold)
+
+    // Personalized strategy: user-user at request time, the precomputed item-item model, or ALS factors
+    val strategy = System.getenv("RECOMMENDATION_STRATEGY")
+        ?: environment.config.propertyOrNull("recommendation.strategy")?.getString()
+        ?: RecommendationEngine.USER_BASED
+    val neighborSearchMode = environment.config.propertyOrNull("recommendation.neighborSearch.mode")?.getString()
+        ?: NeighborSearch.EXACT
+    val neighborSearch = when (neighborSearchMode) {
+        NeighborSearch.EXACT -> ExactNeighborSearch(recommendationAlgorithm)
+        NeighborSearch.LSH -> LshNeighborSearch(
+            recommendationAlgorithm,
+            bands = environment.config.propertyOrNull("recommendation.neighborSearch.bands")?.getString()?.toInt()
+                ?: LshNeighborSearch.DEFAULT_BANDS,
+            rows = environment.config.propertyOrNull("recommendation.neighborSearch.rows")?.getString()?.toInt()
+                ?: LshNeighborSearch.DEFAULT_ROWS
+        ).also { ratingMatrix.addListener(it) }
+        else -> throw IllegalArgumentException("Unknown neighbor search mode: $neighborSearchMode")
+    }
+    val userBasedEngine = UserBasedEngine(recommendationAlgorithm, neighborSearch)
+    var itemSimilarityModel: ItemSimilarityModel? = null
+    var matrixFactorizationModel: MatrixFactorizationModel? = null
+    val recommendationEngine = when (strategy) {
+        RecommendationEngine.USER_BASED -> userBasedEngine
+        RecommendationEngine.ITEM_BASED -> {
+            val itemModel = ItemSimilarityModel(
+                ratingMatrix,
+                neighborCount = environment.config.propertyOrNull("recommendation.itemModel.neighbors")?.getString()?.toInt()
+                    ?: ItemSimilarityModel.DEFAULT_NEIGHBOR_COUNT,
+                buildPool = similarityPool
+            )
+            ratingMatrix.addListener(itemModel)
+            itemModel.start(
+                ratingMatrixLoader,
+                patchIntervalMs = environment.config.propertyOrNull("recommendation.itemModel.patchIntervalMs")?.getString()?.toLong() ?: 5_000L,
+                rebuildIntervalMs = environment.config.propertyOrNull("recommendation.itemModel.rebuildIntervalMs")?.getString()?.toLong() ?: 3_600_000L
+            )
+            itemSimilarityModel = itemModel
+            ItemBasedEngine(recommendationAlgorithm, itemModel, userBasedEngine)
+        }
+        RecommendationEngine.MATRIX_FACTORIZATION -> {
+            val trainingParallelism = environment.config.propertyOrNull("recommendation.factorization.parallelism")?.getString()?.toInt()
+                ?: Runtime.getRuntime().availableProcessors()
+            val factorizationModel = MatrixFactorizationModel(
+                ratingMatrix,
+                rank = environment.config.propertyOrNull("recommendation.factorization.rank")?.getString()?.toInt()
+                    ?: MatrixFactorizationModel.DEFAULT_RANK,
+                regularization = environment.config.propertyOrNull("recommendation.factorization.regularization")?.getString()?.toDouble()
+                    ?: MatrixFactorizationModel.DEFAULT_REGULARIZATION,
+                iterations = environment.config.propertyOrNull("recommendation.factorization.iterations")?.getString()?.toInt()
+                    ?: MatrixFactorizationModel.DEFAULT_ITERATIONS,
+                trainingPool = ForkJoinPool(trainingParallelism)
+            )
+            factorizationModel.start(
+                ratingMatrixLoader,
+                trainIntervalMs = environment.config.propertyOrNull("recommendation.factorization.trainIntervalMs")?.getString()?.toLong() ?: 3_600_000L
+            )
+            matrixFactorizationModel = factorizationModel
+            MatrixFactorizationEngine(recommendationAlgorithm, factorizationModel, userBasedEngine)
+        }
+        else -> throw IllegalArgumentException("Unknown recommendation strategy: $strategy")
+    }
+    val warmStartEnabled = environment.config.propertyOrNull("recommendation.warmStart.enabled")?.getString()?.toBoolean()
+        ?: true
     val recommendationService = RecommendationService(
-        recommendationRepository,
-        ratingServiceClient,
+        recommendationStore,
         courseServiceClient,
-        recommendationAlgorithm
+        recommendationAlgorithm,
+        recommendationEngine,
+        ratingMatrix,
+        ratingMatrixLoader,
+        popularityTable,
+        recommendationWriteBehind,
+        meterRegistry,
+        cacheMaximumSize = environment.config.propertyOrNull("recommendation.cache.maximumSize")?.getString()?.toLong()
+            ?: RecommendationService.DEFAULT_CACHE_MAXIMUM_SIZE,
+        warmStartEnabled = warmStartEnabled
     )
 
+    // Optionally fill the cache from the persisted sets of the most recently served users
+    val preloadUsers = environment.config.propertyOrNull("recommendation.warmStart.preloadUsers")?.getString()?.toInt() ?: 0
+    if (warmStartEnabled && preloadUsers > 0) {
+        launch {
+            try {
+                recommendationService.preloadCache(preloadUsers)
+            } catch (e: Exception) {
+                environment.log.warn("Failed to preload recommendation cache: {}", e.message)
+            }
+        }
+    }
+
     // Configure routes
     configureRecommendationRoutes(recommendationService, courseServiceClient)
 
-    // Start Kafka consumer (optional - can be started separately)
-    // val kafkaConfig = getKafkaConfig()
-    // val ratingEventConsumer = RatingEventConsumer(kafkaConfig, recommendationService)
-    // ratingEventConsumer.start()
+    // Optional eager recomputation of recommendations right after a rating
+    val eagerRefreshEnabled = System.getenv("EAGER_REFRESH_ENABLED")?.toBoolean()
+        ?: environment.config.propertyOrNull("recommendation.eagerRefresh.enabled")?.getString()?.toBoolean()
+        ?: false
+    val recommendationRefresher = if (eagerRefreshEnabled) {
+        RecommendationRefresher(
+            recommendationService::refreshRecommendations,
+            workers = environment.config.propertyOrNull("recommendation.eagerRefresh.workers")?.getString()?.toInt() ?: 4,
+            queueCapacity = environment.config.propertyOrNull("recommendation.eagerRefresh.queueCapacity")?.getString()?.toInt() ?: 1000
+        ).also { it.start() }
+    } else {
+        null
+    }
+
+    // Start Kafka consumer - rating events keep the rating matrix current
+    val kafkaConfig = getKafkaConfig()
+    val ratingEventConsumer = RatingEventConsumer(kafkaConfig, recommendationService, recommendationRefresher, meterRegistry)
+    ratingEventConsumer.start()
+    environment.monitor.subscribe(ApplicationStopped) {
+        ratingEventConsumer.stop()
+        recommendationRefresher?.stop()
+        itemSimilarityModel?.stop()
+        matrixFactorizationModel?.stop()
+        courseServiceClient.stop()
+        // After the refresher, so that the sets it produced are still written before the pool closes
+        recommendationWriteBehind.stop()
+        generationCollector?.stop()
+        databaseDispatcher.close()
+        dataSource.close()
+    }
 }
 
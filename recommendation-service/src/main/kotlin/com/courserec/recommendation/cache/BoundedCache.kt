@@ -0,0 +1,73 @@
+package com.courserec.recommendation.cache
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.Ticker
+import com.github.benmanes.caffeine.cache.stats.CacheStats
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics
+import java.time.Duration
+
+/**
+ * In-memory cache with a maximum number of entries and expire-after-write.
+ *
+ * Backed by Caffeine, which evicts with W-TinyLFU and removes expired entries during
+ * its maintenance cycles rather than only on read. Hit, miss and eviction counts are
+ * recorded and, when a registry is given, published under the `cache` tag [name].
+ */
+class BoundedCache<K : Any, V : Any>(
+    val name: String,
+    maximumSize: Long,
+    expireAfterWrite: Duration,
+    meterRegistry: MeterRegistry? = null,
+    ticker: Ticker = Ticker.systemTicker()
+) {
+    private val cache: Cache<K, V> = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfterWrite)
+        .ticker(ticker)
+        .recordStats()
+        .build()
+
+    init {
+        meterRegistry?.let { CaffeineCacheMetrics.monitor(it, cache, name) }
+    }
+
+    val estimatedSize: Long
+        get() = cache.estimatedSize()
+
+    operator fun get(key: K): V? = cache.getIfPresent(key)
+
+    operator fun set(key: K, value: V) {
+        cache.put(key, value)
+    }
+
+    fun getAllPresent(keys: Iterable<K>): Map<K, V> = cache.getAllPresent(keys)
+
+    fun putAll(entries: Map<K, V>) {
+        cache.putAll(entries)
+    }
+
+    /**
+     * Store the value unless a live entry exists, returning that entry if so
+     */
+    fun putIfAbsent(key: K, value: V): V? = cache.asMap().putIfAbsent(key, value)
+
+    /**
+     * Remove the entry only if it still holds [value]
+     */
+    fun remove(key: K, value: V): Boolean = cache.asMap().remove(key, value)
+
+    fun invalidate(key: K) {
+        cache.invalidate(key)
+    }
+
+    fun stats(): CacheStats = cache.stats()
+
+    /**
+     * Run pending evictions and expirations now instead of on the next maintenance cycle
+     */
+    fun cleanUp() {
+        cache.cleanUp()
+    }
+}
@@ -0,0 +1,142 @@
+package com.courserec.recommendation.cache
+
+import com.github.benmanes.caffeine.cache.Ticker
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * [BoundedCache] for remote lookups with stale-while-revalidate.
+ *
+ * An entry older than [refreshAfterWrite] is still returned, and one background reload
+ * replaces it; when the reload fails the stale value keeps being served until the entry
+ * expires after [expireAfterWrite]. Concurrent misses for a key share one load.
+ * Loads and refreshes are timed and counted under the `cache` tag [name].
+ */
+class RefreshingCache<K : Any, V : Any>(
+    private val name: String,
+    maximumSize: Long,
+    private val refreshAfterWrite: Duration,
+    expireAfterWrite: Duration,
+    meterRegistry: MeterRegistry? = null,
+    private val ticker: Ticker = Ticker.systemTicker()
+) {
+    private val logger = LoggerFactory.getLogger(RefreshingCache::class.java)
+    private val cache = BoundedCache<K, Entry<V>>(name, maximumSize, expireAfterWrite, meterRegistry, ticker)
+    private val loads = SingleFlight<K, V?>()
+    private val refreshing = ConcurrentHashMap.newKeySet<K>()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val loadTimer = meterRegistry?.let {
+        Timer.builder("cache.remote.load").tag("cache", name).register(it)
+    }
+    private val loadFailures = meterRegistry?.let {
+        Counter.builder("cache.remote.load.failures").tag("cache", name).register(it)
+    }
+    private val staleHits = meterRegistry?.let {
+        Counter.builder("cache.remote.stale.hits").tag("cache", name).register(it)
+    }
+
+    /**
+     * Return the cached value, loading it with [loader] on a miss. A null result is not cached.
+     * Failures of a load on a miss propagate to the callers.
+     */
+    suspend fun get(key: K, loader: suspend () -> V?): V? {
+        val entry = cache[key]
+        if (entry != null) {
+            if (ticker.read() - entry.writtenAt >= refreshAfterWrite.toNanos()) {
+                staleHits?.increment()
+                refreshInBackground(key, loader)
+            }
+            return entry.value
+        }
+        return loads.execute(key) { load(key, loader) }
+    }
+
+    /**
+     * Return the cached values for [keys] without loading missing ones. Stale entries are
+     * returned too and reloaded together in the background with [batchLoader].
+     */
+    fun getAllPresent(keys: Collection<K>, batchLoader: suspend (Collection<K>) -> Map<K, V>): Map<K, V> {
+        val entries = cache.getAllPresent(keys)
+        val refreshAt = ticker.read() - refreshAfterWrite.toNanos()
+        val stale = entries.filterValues { it.writtenAt <= refreshAt }.keys.filter { refreshing.add(it) }
+        if (stale.isNotEmpty()) {
+            staleHits?.increment(stale.size.toDouble())
+            scope.launch {
+                try {
+                    putAll(timedLoad { batchLoader(stale) })
+                } catch (e: Exception) {
+                    logger.warn("Failed to refresh {} {} cache entries: {}", stale.size, name, e.message)
+                } finally {
+                    refreshing.removeAll(stale.toSet())
+                }
+            }
+        }
+        return entries.mapValues { it.value.value }
+    }
+
+    fun putAll(values: Map<K, V>) {
+        val writtenAt = ticker.read()
+        cache.putAll(values.mapValues { Entry(it.value, writtenAt) })
+    }
+
+    operator fun set(key: K, value: V) {
+        cache[key] = Entry(value, ticker.read())
+    }
+
+    fun invalidate(key: K) {
+        cache.invalidate(key)
+    }
+
+    /**
+     * Cancel background refreshes. Lookups keep working, stale entries are no longer reloaded.
+     */
+    fun stop() {
+        scope.cancel()
+    }
+
+    private fun refreshInBackground(key: K, loader: suspend () -> V?) {
+        if (!refreshing.add(key)) {
+            return
+        }
+        scope.launch {
+            try {
+                loads.execute(key) { load(key, loader) }
+            } catch (e: Exception) {
+                // The stale value stays until it expires
+                logger.warn("Failed to refresh {} cache entry {}: {}", name, key, e.message)
+            } finally {
+                refreshing.remove(key)
+            }
+        }
+    }
+
+    private suspend fun load(key: K, loader: suspend () -> V?): V? {
+        val value = timedLoad(loader)
+        value?.let { set(key, it) }
+        return value
+    }
+
+    private suspend fun <T> timedLoad(loader: suspend () -> T): T {
+        val startTime = ticker.read()
+        try {
+            return loader()
+        } catch (e: Exception) {
+            loadFailures?.increment()
+            throw e
+        } finally {
+            loadTimer?.record(Duration.ofNanos(ticker.read() - startTime))
+        }
+    }
+
+    private class Entry<V>(val value: V, val writtenAt: Long)
+}
@@ -0,0 +1,54 @@
+package com.courserec.recommendation.cache
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Collapses concurrent calls for the same key into one execution.
+ *
+ * The first caller for a key runs the block; callers arriving while it is in flight await
+ * its result or failure instead of running the block again. Once the block completes the
+ * key is released, so later calls start a new execution.
+ */
+class SingleFlight<K : Any, V> {
+    private val inFlight = ConcurrentHashMap<K, CompletableDeferred<V>>()
+
+    val inFlightCount: Int
+        get() = inFlight.size
+
+    suspend fun execute(key: K, block: suspend () -> V): V {
+        while (true) {
+            val existing = inFlight[key]
+            if (existing != null) {
+                try {
+                    return existing.await()
+                } catch (e: CancellationException) {
+                    // The leader was cancelled, not this caller: take over the work
+                    currentCoroutineContext().ensureActive()
+                    continue
+                }
+            }
+
+            val flight = CompletableDeferred<V>()
+            if (inFlight.putIfAbsent(key, flight) != null) {
+                continue
+            }
+            try {
+                val result = block()
+                flight.complete(result)
+                return result
+            } catch (e: CancellationException) {
+                flight.cancel(e)
+                throw e
+            } catch (e: Throwable) {
+                flight.completeExceptionally(e)
+                throw e
+            } finally {
+                inFlight.remove(key, flight)
+            }
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.courserec.recommendation.client
 
+import com.courserec.recommendation.cache.RefreshingCache
 import io.ktor.client.HttpClient
 import io.ktor.client.call.body
 import io.ktor.client.request.get
 import io.ktor.client.request.header
+import io.micrometer.core.instrument.MeterRegistry
+import java.time.Duration
 import java.util.UUID
 
 @kotlinx.serialization.Serializable
@@ -18,49 +21,66 @@ data class CourseResponse(
 
 class CourseServiceClient(
     private val httpClient: HttpClient,
-    private val courseServiceUrl: String
+    private val courseServiceUrl: String,
+    meterRegistry: MeterRegistry? = null
 ) {
-    private val cache = mutableMapOf<UUID, CachedCourse>()
-    private val cacheTtl = 10 * 60 * 1000L // 10 minutes
+    private val cache = RefreshingCache<UUID, CourseResponse>(
+        "course-service-courses",
+        CACHE_MAXIMUM_SIZE,
+        refreshAfterWrite = Duration.ofMinutes(5),
+        expireAfterWrite = Duration.ofMinutes(10),
+        meterRegistry = meterRegistry
+    )
 
     suspend fun getCourse(courseId: UUID): CourseResponse? {
-        // Check cache
-        val cached = cache[courseId]
-        if (cached != null && !cached.isExpired(cacheTtl)) {
-            return cached.course
-        }
-
-        // Fetch from service
+        // Served from cache, refreshed in the background once stale
         return try {
-            val course = httpClient.get("$courseServiceUrl/api/v1/courses/$courseId").body<CourseResponse>()
-            if (course.getIdAsUUID() == courseId) {
-                cache[courseId] = CachedCourse(course, System.currentTimeMillis())
+            cache.get(courseId) {
+                val course = httpClient.get("$courseServiceUrl/api/v1/courses/$courseId").body<CourseResponse>()
+                course.takeIf { it.getIdAsUUID() == courseId }
             }
-            course
         } catch (e: Exception) {
             null
         }
     }
 
+    /**
+     * Fetch courses by id, in the requested order. Cached courses are served locally and only
+     * the missing ids are requested from course-service; the fetched courses are cached.
+     */
     suspend fun getCoursesBatch(courseIds: List<UUID>, jwtToken: String? = null): List<CourseResponse> {
+        val cached = cache.getAllPresent(courseIds) { staleIds -> fetchCoursesBatch(staleIds, jwtToken) }
+        val missingIds = courseIds.filterNot { cached.containsKey(it) }.distinct()
+        if (missingIds.isEmpty()) {
+            return courseIds.mapNotNull { cached[it] }
+        }
+
+        val fetched = try {
+            fetchCoursesBatch(missingIds, jwtToken)
+        } catch (e: Exception) {
+            emptyMap()
+        }
+        cache.putAll(fetched)
+
+        return courseIds.mapNotNull { cached[it] ?: fetched[it] }
+    }
+
+    private suspend fun fetchCoursesBatch(courseIds: Collection<UUID>, jwtToken: String?): Map<UUID, CourseResponse> {
         val idsParam = courseIds.joinToString(",")
-        return try {
-            val request = httpClient.get("$courseServiceUrl/api/v1/courses/batch?ids=$idsParam") {
-                jwtToken?.let { 
-                    header("Authorization", "Bearer $it")
-                }
+        val request = httpClient.get("$courseServiceUrl/api/v1/courses/batch?ids=$idsParam") {
+            jwtToken?.let {
+                header("Authorization", "Bearer $it")
             }
-            request.body<List<CourseResponse>>()
-        } catch (e: Exception) {
-            emptyList()
         }
+        return request.body<List<CourseResponse>>().associateBy { it.getIdAsUUID() }
+    }
+
+    fun stop() {
+        cache.stop()
     }
 
-    private data class CachedCourse(
-        val course: CourseResponse,
-        val timestamp: Long
-    ) {
-        fun isExpired(ttl: Long): Boolean = System.currentTimeMillis() - timestamp > ttl
+    companion object {
+        private const val CACHE_MAXIMUM_SIZE = 10_000L
     }
 }
 
@@ -4,6 +4,14 @@ import io.ktor.client.HttpClient
 import io.ktor.client.call.body
 import io.ktor.client.request.get
 import io.ktor.client.request.header
+import io.ktor.client.request.prepareGet
+import io.ktor.client.statement.bodyAsChannel
+import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.contentType
+import io.ktor.http.isSuccess
+import io.ktor.utils.io.readInt
+import java.nio.ByteBuffer
 import java.util.UUID
 
 @kotlinx.serialization.Serializable
@@ -19,59 +27,126 @@ data class RatingResponse(
 }
 
 @kotlinx.serialization.Serializable
-data class RatingPageResponse(
+data class RatingExportResponse(
     val content: List<RatingResponse>,
-    val totalElements: Long
+    val nextCursor: String? = null,
+    val hasNext: Boolean = false
 )
 
+/**
+ * Receives ratings from a bulk transfer without boxing or intermediate objects
+ */
+fun interface RatingSink {
+    fun accept(userId: UUID, courseId: UUID, ratingValue: Int)
+}
+
 class RatingServiceClient(
     private val httpClient: HttpClient,
-    private val ratingServiceUrl: String
+    private val ratingServiceUrl: String,
+    private val binaryExport: Boolean = false
 ) {
-    private val cache = mutableMapOf<UUID, CachedRatings>()
-    private val cacheTtl = 5 * 60 * 1000L // 5 minutes
-
-    suspend fun getUserRatings(userId: UUID, jwtToken: String? = null): List<RatingResponse> {
-        // Check cache
-        val cached = cache[userId]
-        if (cached != null && !cached.isExpired(cacheTtl)) {
-            return cached.ratings
+    /**
+     * Walk every rating through rating-service's bulk export, so the full data set is never
+     * truncated or materialized in a single response. With [binaryExport] enabled the ratings
+     * arrive as one stream of compact binary frames; otherwise as keyset-paginated JSON chunks.
+     * Failures propagate to let callers retry a partial load.
+     */
+    suspend fun forEachRating(jwtToken: String? = null, sink: RatingSink) {
+        if (binaryExport) {
+            forEachRatingFrame(jwtToken, sink)
+        } else {
+            forEachExportChunk(jwtToken, null) { chunk ->
+                for (rating in chunk.content) {
+                    sink.accept(rating.getUserIdAsUUID(), rating.getCourseIdAsUUID(), rating.ratingValue)
+                }
+            }
         }
+    }
 
-        // Fetch from service
-        return try {
-            val request = httpClient.get("$ratingServiceUrl/api/v1/ratings?userId=$userId&size=1000") {
-                jwtToken?.let { 
+    private suspend fun forEachExportChunk(
+        jwtToken: String?,
+        after: String?,
+        action: (RatingExportResponse) -> Unit
+    ) {
+        var cursor = after
+        do {
+            val afterParam = cursor?.let { "&after=$it" } ?: ""
+            val request = httpClient.get("$ratingServiceUrl/api/v1/ratings/export?size=$EXPORT_CHUNK_SIZE$afterParam") {
+                jwtToken?.let {
                     header("Authorization", "Bearer $it")
                 }
             }
-            val response = request.body<RatingPageResponse>()
-            cache[userId] = CachedRatings(response.content, System.currentTimeMillis())
-            response.content
-        } catch (e: Exception) {
-            emptyList()
-        }
+            val response = request.body<RatingExportResponse>()
+            action(response)
+            cursor = response.nextCursor
+        } while (response.hasNext && cursor != null)
     }
 
-    suspend fun getAllRatings(jwtToken: String? = null): List<RatingResponse> {
-        return try {
-            val request = httpClient.get("$ratingServiceUrl/api/v1/ratings?size=10000") {
-                jwtToken?.let { 
-                    header("Authorization", "Bearer $it")
+    private suspend fun forEachRatingFrame(jwtToken: String?, sink: RatingSink) {
+        httpClient.prepareGet("$ratingServiceUrl/api/v1/ratings/export?size=$EXPORT_CHUNK_SIZE") {
+            // JSON stays acceptable so that a rating-service without binary support answers with it
+            header(HttpHeaders.Accept, "$RATING_FRAMES, ${ContentType.Application.Json};q=0.5")
+            jwtToken?.let {
+                header("Authorization", "Bearer $it")
+            }
+        }.execute { response ->
+            check(response.status.isSuccess()) { "Rating export failed with status ${response.status}" }
+            if (response.contentType()?.match(RATING_FRAMES) != true) {
+                // Older rating-service answered with a JSON chunk, keep going with that format
+                val chunk = response.body<RatingExportResponse>()
+                for (rating in chunk.content) {
+                    sink.accept(rating.getUserIdAsUUID(), rating.getCourseIdAsUUID(), rating.ratingValue)
                 }
+                if (chunk.hasNext) {
+                    forEachExportChunk(jwtToken, chunk.nextCursor) { next ->
+                        for (rating in next.content) {
+                            sink.accept(rating.getUserIdAsUUID(), rating.getCourseIdAsUUID(), rating.ratingValue)
+                        }
+                    }
+                }
+                return@execute
+            }
+
+            val channel = response.bodyAsChannel()
+            var payload = ByteArray(EXPORT_CHUNK_SIZE * RATING_RECORD_SIZE)
+            while (true) {
+                val length = channel.readInt()
+                if (length == 0) {
+                    break
+                }
+                check(length > 0 && length % RATING_RECORD_SIZE == 0) { "Corrupt rating frame length: $length" }
+                if (length > payload.size) {
+                    payload = ByteArray(length)
+                }
+                channel.readFully(payload, 0, length)
+                decodeRatingFrame(payload, length, sink)
             }
-            val response = request.body<RatingPageResponse>()
-            response.content
-        } catch (e: Exception) {
-            emptyList()
         }
     }
 
-    private data class CachedRatings(
-        val ratings: List<RatingResponse>,
-        val timestamp: Long
-    ) {
-        fun isExpired(ttl: Long): Boolean = System.currentTimeMillis() - timestamp > ttl
+    companion object {
+        private const val EXPORT_CHUNK_SIZE = 5000
+        private const val UUID_SIZE = 2 * Long.SIZE_BYTES
+
+        /**
+         * Bytes per frame record: user id, course id, rating value. Mirrors rating-service's
+         * RatingFrameCodec layout, which [decodeRatingFrame] reads field by field.
+         */
+        const val RATING_RECORD_SIZE = 2 * UUID_SIZE + Byte.SIZE_BYTES
+        private val RATING_FRAMES = ContentType("application", "x-rating-frames")
+
+        /**
+         * Decode one frame payload of fixed-size records: user id and course id as two longs each,
+         * followed by the rating value as a byte
+         */
+        fun decodeRatingFrame(payload: ByteArray, length: Int, sink: RatingSink) {
+            val buffer = ByteBuffer.wrap(payload, 0, length)
+            while (buffer.hasRemaining()) {
+                val userId = UUID(buffer.long, buffer.long)
+                val courseId = UUID(buffer.long, buffer.long)
+                sink.accept(userId, courseId, buffer.get().toInt())
+            }
+        }
     }
 }
 
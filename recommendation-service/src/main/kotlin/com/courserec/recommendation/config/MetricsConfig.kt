@@ -0,0 +1,33 @@
+package com.courserec.recommendation.config
+
+import io.ktor.server.application.Application
+import io.ktor.server.application.call
+import io.ktor.server.response.respondText
+import io.ktor.server.routing.get
+import io.ktor.server.routing.routing
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics
+import io.micrometer.prometheus.PrometheusConfig
+import io.micrometer.prometheus.PrometheusMeterRegistry
+
+/**
+ * Creates the service-wide meter registry and exposes it in Prometheus format on /metrics.
+ */
+fun Application.configureMetrics(): PrometheusMeterRegistry {
+    val meterRegistry = PrometheusMeterRegistry(PrometheusConfig.DEFAULT)
+
+    JvmMemoryMetrics().bindTo(meterRegistry)
+    JvmGcMetrics().bindTo(meterRegistry)
+    JvmThreadMetrics().bindTo(meterRegistry)
+    ProcessorMetrics().bindTo(meterRegistry)
+
+    routing {
+        get("/metrics") {
+            call.respondText(meterRegistry.scrape())
+        }
+    }
+
+    return meterRegistry
+}
@@ -1,9 +1,17 @@
 package com.courserec.recommendation.database
 
+import com.zaxxer.hikari.HikariConfig
+import com.zaxxer.hikari.HikariDataSource
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory
 import io.ktor.server.application.Application
+import io.micrometer.core.instrument.MeterRegistry
 import org.jetbrains.exposed.sql.Database
 
-fun Application.configureDatabase(): Database {
+/**
+ * Connect Exposed through a HikariCP pool. The returned pool must be closed on shutdown,
+ * after everything that still writes to the database has stopped.
+ */
+fun Application.configureDatabase(meterRegistry: MeterRegistry? = null): HikariDataSource {
     val url = System.getenv("DATABASE_URL") 
         ?: environment.config.propertyOrNull("database.url")?.getString()
         ?: "jdbc:postgresql://recommendation-db:5432/recommendation_db"
@@ -19,13 +27,34 @@ fun Application.configureDatabase(): Database {
     val driver = environment.config.propertyOrNull("database.driver")?.getString()
         ?: "org.postgresql.Driver"
 
-    val database = Database.connect(
-        url = url,
-        user = user,
-        password = password,
-        driver = driver
-    )
+    fun poolProperty(name: String): String? = environment.config.propertyOrNull("database.pool.$name")?.getString()
 
-    return database
+    val config = HikariConfig().apply {
+        jdbcUrl = url
+        username = user
+        this.password = password
+        driverClassName = driver
+        poolName = "recommendation-db"
+        maximumPoolSize = System.getenv("DATABASE_POOL_SIZE")?.toInt() ?: poolProperty("maximumSize")?.toInt() ?: 10
+        minimumIdle = poolProperty("minimumIdle")?.toInt() ?: 2
+        connectionTimeout = poolProperty("connectionTimeoutMs")?.toLong() ?: 5_000L
+        idleTimeout = poolProperty("idleTimeoutMs")?.toLong() ?: 600_000L
+        maxLifetime = poolProperty("maxLifetimeMs")?.toLong() ?: 1_800_000L
+        // Logs a stack trace for connections held longer than this, 0 disables it
+        leakDetectionThreshold = poolProperty("leakDetectionThresholdMs")?.toLong() ?: 60_000L
+
+        // Server-side prepared statements after this many executions, cached per connection
+        addDataSourceProperty("prepareThreshold", poolProperty("prepareThreshold") ?: "3")
+        addDataSourceProperty("preparedStatementCacheQueries", poolProperty("preparedStatementCacheQueries") ?: "256")
+        // Lets the driver send batchInsert rows as multi-row INSERT statements
+        addDataSourceProperty("reWriteBatchedInserts", "true")
+
+        meterRegistry?.let { metricsTrackerFactory = MicrometerMetricsTrackerFactory(it) }
+    }
+    val dataSource = HikariDataSource(config)
+
+    Database.connect(dataSource)
+
+    return dataSource
 }
 
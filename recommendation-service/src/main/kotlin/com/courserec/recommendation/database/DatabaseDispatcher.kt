@@ -0,0 +1,28 @@
+package com.courserec.recommendation.database
+
+import com.zaxxer.hikari.HikariDataSource
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics
+import kotlinx.coroutines.ExecutorCoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Create the dispatcher that runs blocking JDBC work, so database calls never occupy Netty
+ * event-loop or Dispatchers.Default threads. One thread per connection of [dataSource]: more
+ * threads would only wait for a connection, fewer would leave connections idle, so the size
+ * is taken from the pool rather than configured separately. Queue length, active threads and
+ * task times are published as `executor` metrics named "database".
+ */
+fun createDatabaseDispatcher(dataSource: HikariDataSource, meterRegistry: MeterRegistry? = null): ExecutorCoroutineDispatcher {
+    val threads = dataSource.maximumPoolSize
+    val threadNumber = AtomicInteger()
+    val executor = ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, LinkedBlockingQueue()) { runnable ->
+        Thread(runnable, "database-${threadNumber.incrementAndGet()}").apply { isDaemon = true }
+    }
+    val monitored = meterRegistry?.let { ExecutorServiceMetrics.monitor(it, executor, "database") } ?: executor
+    return monitored.asCoroutineDispatcher()
+}
@@ -1,12 +1,75 @@
 package com.courserec.recommendation.database
 
-import com.courserec.recommendation.model.Recommendation
 import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.Transaction
+import org.jetbrains.exposed.sql.insertIgnore
+import org.jetbrains.exposed.sql.select
 import org.jetbrains.exposed.sql.transactions.transaction
 
 fun initializeDatabase() {
     transaction {
-        SchemaUtils.create(RecommendationTable)
+        SchemaUtils.createSequence(RecommendationGenerationSequence)
+        // Also adds the generation column and index to a recommendations table from before generations
+        SchemaUtils.createMissingTablesAndColumns(
+            RecommendationTable,
+            RecommendationHeadTable,
+            RecommendationSnapshotTable,
+            SchemaMigrationTable
+        )
+
+        migrate(GENERATIONS_MIGRATION) {
+            // Sets written before generations existed are generation 0, point their users at them
+            adoptUnversionedRecommendations()
+            // Reads go through (user_id, generation, rank) now
+            exec("DROP INDEX IF EXISTS recommendations_user_id_generated_at_rank")
+        }
+    }
+}
+
+/**
+ * Run a one-off data migration unless it was already applied. The steps must be idempotent:
+ * instances starting at the same time can both run them before one records the version.
+ */
+private fun Transaction.migrate(version: Int, steps: Transaction.() -> Unit) {
+    val applied = SchemaMigrationTable.select { SchemaMigrationTable.version eq version }.any()
+    if (applied) {
+        return
     }
+    steps()
+    SchemaMigrationTable.insertIgnore {
+        it[SchemaMigrationTable.version] = version
+    }
+}
+
+/**
+ * Point each user's head at their generation 0 set when it is newer than the current head, or
+ * when the head's own generation is gone. Generation 0 rows come from before generations existed,
+ * or from instances still running the delete-then-insert writer during a rolling deploy; that
+ * writer deletes every row of the user, including the generation the head points at.
+ */
+fun Transaction.adoptUnversionedRecommendations() {
+    exec(
+        """
+        UPDATE recommendation_heads heads
+        SET generation = 0,
+            generated_at = (SELECT MAX(r.generated_at) FROM recommendations r WHERE r.user_id = heads.user_id AND r.generation = 0)
+        WHERE EXISTS (
+            SELECT 1 FROM recommendations r WHERE r.user_id = heads.user_id AND r.generation = 0
+                AND (r.generated_at > heads.generated_at OR NOT EXISTS (
+                    SELECT 1 FROM recommendations c WHERE c.user_id = heads.user_id AND c.generation = heads.generation
+                ))
+        )
+        """.trimIndent()
+    )
+    exec(
+        """
+        INSERT INTO recommendation_heads (user_id, generation, generated_at)
+        SELECT r.user_id, 0, MAX(r.generated_at) FROM recommendations r
+        WHERE r.generation = 0 AND NOT EXISTS (SELECT 1 FROM recommendation_heads heads WHERE heads.user_id = r.user_id)
+        GROUP BY r.user_id
+        ON CONFLICT DO NOTHING
+        """.trimIndent()
+    )
 }
 
+private const val GENERATIONS_MIGRATION = 1
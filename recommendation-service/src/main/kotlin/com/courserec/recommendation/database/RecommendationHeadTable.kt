@@ -0,0 +1,22 @@
+package com.courserec.recommendation.database
+
+import org.jetbrains.exposed.sql.Sequence
+import org.jetbrains.exposed.sql.Table
+import org.jetbrains.exposed.sql.kotlin.datetime.timestamp
+
+/**
+ * Points each user at the generation of [RecommendationTable] rows that is current
+ */
+object RecommendationHeadTable : Table("recommendation_heads") {
+    val userId = uuid("user_id")
+    val generation = long("generation")
+    val generatedAt = timestamp("generated_at")
+
+    override val primaryKey = PrimaryKey(userId)
+
+    init {
+        index(isUnique = false, generatedAt)
+    }
+}
+
+val RecommendationGenerationSequence = Sequence("recommendation_generation_seq")
@@ -0,0 +1,21 @@
+package com.courserec.recommendation.database
+
+import org.jetbrains.exposed.sql.Table
+import org.jetbrains.exposed.sql.kotlin.datetime.timestamp
+
+/**
+ * One row per user holding the whole recommendation set as a packed payload,
+ * see [com.courserec.recommendation.repository.RecommendationSnapshotCodec]
+ */
+object RecommendationSnapshotTable : Table("recommendation_snapshots") {
+    val userId = uuid("user_id")
+    val generation = long("generation")
+    val generatedAt = timestamp("generated_at")
+    val payload = binary("payload")
+
+    override val primaryKey = PrimaryKey(userId)
+
+    init {
+        index(isUnique = false, generatedAt)
+    }
+}
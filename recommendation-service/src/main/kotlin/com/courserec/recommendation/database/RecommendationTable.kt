@@ -10,11 +10,12 @@ object RecommendationTable : UUIDTable("recommendations") {
     val relevanceScore = decimal("relevance_score", 5, 4)
     val generatedAt = timestamp("generated_at")
     val rank = integer("rank")
+    // Sets are written alongside each other, the one in recommendation_heads is current
+    val generation = long("generation").default(0L)
 
     init {
-        index(isUnique = false, userId, generatedAt, rank)
+        index(isUnique = false, userId, generation, rank)
         index(isUnique = false, userId)
         index(isUnique = false, courseId)
     }
 }
-
@@ -0,0 +1,15 @@
+package com.courserec.recommendation.database
+
+import org.jetbrains.exposed.sql.Table
+import org.jetbrains.exposed.sql.kotlin.datetime.CurrentTimestamp
+import org.jetbrains.exposed.sql.kotlin.datetime.timestamp
+
+/**
+ * Versions of the one-off data migrations that have been applied
+ */
+object SchemaMigrationTable : Table("schema_migrations") {
+    val version = integer("version")
+    val appliedAt = timestamp("applied_at").defaultExpression(CurrentTimestamp())
+
+    override val primaryKey = PrimaryKey(version)
+}
@@ -0,0 +1,22 @@
+package com.courserec.recommendation.database
+
+import org.jetbrains.exposed.sql.Column
+import org.jetbrains.exposed.sql.Expression
+import org.jetbrains.exposed.sql.QueryBuilder
+import org.jetbrains.exposed.sql.transactions.TransactionManager
+import org.jetbrains.exposed.sql.vendors.H2Dialect
+import org.jetbrains.exposed.sql.vendors.currentDialect
+
+/**
+ * The value this column would have been inserted with, for ON CONFLICT DO UPDATE. On H2, which
+ * the repository tests run on, Exposed upserts with a MERGE whose source row is named S.
+ */
+fun <T> Column<T>.excluded(): Expression<T> {
+    val column = this
+    return object : Expression<T>() {
+        override fun toQueryBuilder(queryBuilder: QueryBuilder) {
+            queryBuilder.append(if (currentDialect is H2Dialect) "S." else "EXCLUDED.")
+            queryBuilder.append(TransactionManager.current().identity(column))
+        }
+    }
+}
@@ -8,15 +8,33 @@ import java.util.Properties
 data class KafkaConsumerConfig(
     val bootstrapServers: String,
     val groupId: String,
-    val topic: String
+    val topic: String,
+    val autoOffsetReset: String = "latest"
 )
 
+/**
+ * Every instance keeps its own in-memory rating matrix and must see every rating event, so
+ * each one consumes in its own group, `<kafka.consumer.groupId>-<kafka.consumer.instanceId>`.
+ * A shared group would split the partitions between replicas and leave each matrix missing the
+ * others' events. The instance id is required and must survive restarts, e.g. a StatefulSet
+ * ordinal: a restarted instance then resumes from its group's offsets, and the number of groups
+ * stays at the number of replicas instead of growing with every restart.
+ */
 fun Application.getKafkaConfig(): KafkaConsumerConfig {
     val config = environment.config
+    val groupPrefix = config.propertyOrNull("kafka.consumer.groupId")?.getString()
+        ?: "recommendation-service-group"
+    val instanceId = config.propertyOrNull("kafka.consumer.instanceId")?.getString()
+        ?: throw IllegalStateException("kafka.consumer.instanceId (INSTANCE_ID) must be set to a stable id per instance")
     return KafkaConsumerConfig(
-        bootstrapServers = config.property("kafka.bootstrapServers").getString(),
-        groupId = config.property("kafka.consumer.groupId").getString(),
-        topic = config.property("kafka.topics.ratings").getString()
+        bootstrapServers = System.getenv("KAFKA_BOOTSTRAP_SERVERS")
+            ?: config.propertyOrNull("kafka.bootstrapServers")?.getString()
+            ?: "kafka:9092",
+        groupId = "$groupPrefix-$instanceId",
+        topic = config.propertyOrNull("kafka.topics.ratings")?.getString()
+            ?: "ratings",
+        autoOffsetReset = config.propertyOrNull("kafka.consumer.autoOffsetReset")?.getString()
+            ?: "latest"
     )
 }
 
@@ -26,8 +44,10 @@ fun createKafkaConsumerProperties(kafkaConfig: KafkaConsumerConfig): Properties
     props[ConsumerConfig.GROUP_ID_CONFIG] = kafkaConfig.groupId
     props[ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java.name
     props[ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG] = StringDeserializer::class.java.name
-    props[ConsumerConfig.AUTO_OFFSET_RESET_CONFIG] = "earliest"
-    props[ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG] = "true"
+    props[ConsumerConfig.AUTO_OFFSET_RESET_CONFIG] = kafkaConfig.autoOffsetReset
+    // Offsets are committed by RatingEventConsumer after the records have been processed
+    props[ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG] = "false"
+    props[ConsumerConfig.MAX_POLL_RECORDS_CONFIG] = "500"
     return props
 }
 
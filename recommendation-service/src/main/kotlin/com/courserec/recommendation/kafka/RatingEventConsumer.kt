@@ -1,54 +1,207 @@
 package com.courserec.recommendation.kafka
 
+import com.courserec.recommendation.service.RecommendationRefresher
 import com.courserec.recommendation.service.RecommendationService
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import kotlinx.serialization.SerialName
 import kotlinx.serialization.json.Json
+import org.apache.kafka.clients.consumer.Consumer
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener
 import org.apache.kafka.clients.consumer.ConsumerRecord
-import org.apache.kafka.clients.consumer.ConsumerRecords
 import org.apache.kafka.clients.consumer.KafkaConsumer
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.WakeupException
 import org.slf4j.LoggerFactory
 import java.time.Duration
 import java.util.UUID
-import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
+/**
+ * Consumes rating events with one worker per assigned partition.
+ *
+ * A single thread owns the [KafkaConsumer]: it polls, hands each partition's records to
+ * that partition's worker and pauses the partition until the worker is done, so a slow
+ * partition never stalls the others. Offsets are committed manually, only after the
+ * records have been processed. Events are keyed by user id, so per-user order holds.
+ * The group is per instance (see [getKafkaConfig]), so every replica's matrix sees every event.
+ *
+ * A partition the group has no offset for starts at the first event published after [start],
+ * not at the end of the topic. The matrix bootstrap can read rating-service before the first
+ * poll assigns partitions, and events published in between would otherwise be lost. Events the
+ * bootstrap already holds are applied again, in order, which leaves the same ratings.
+ */
 class RatingEventConsumer(
-    private val kafkaConfig: com.courserec.recommendation.kafka.KafkaConsumerConfig,
-    private val recommendationService: RecommendationService
+    private val kafkaConfig: KafkaConsumerConfig,
+    private val recommendationService: RecommendationService,
+    private val recommendationRefresher: RecommendationRefresher? = null,
+    private val meterRegistry: MeterRegistry,
+    private val consumerFactory: () -> Consumer<String, String> = {
+        KafkaConsumer(createKafkaConsumerProperties(kafkaConfig))
+    }
 ) {
-    private val json = Json { ignoreUnknownKeys = true }
+    private val json = Json {
+        ignoreUnknownKeys = true
+        isLenient = true
+    }
     private val logger = LoggerFactory.getLogger(RatingEventConsumer::class.java)
-    private var consumer: KafkaConsumer<String, String>? = null
+    private var consumer: Consumer<String, String>? = null
+    private var pollThread: Thread? = null
+
+    @Volatile
     private var running = false
+    private var startedAt = 0L
+
+    // Owned by the poll thread, completion signals come back through the concurrent collections
+    private val workers = HashMap<TopicPartition, PartitionWorker>()
+    private val completedOffsets = ConcurrentHashMap<TopicPartition, OffsetAndMetadata>()
+    private val finishedPartitions = ConcurrentLinkedQueue<TopicPartition>()
+    private val lagByPartition = ConcurrentHashMap<TopicPartition, AtomicLong>()
+    private var lastLagReport = 0L
+
+    private val processedEvents = Counter.builder("kafka.consumer.events.processed")
+        .tag("topic", kafkaConfig.topic)
+        .register(meterRegistry)
+    private val failedEvents = Counter.builder("kafka.consumer.events.failed")
+        .tag("topic", kafkaConfig.topic)
+        .register(meterRegistry)
 
     fun start() {
-        val props = com.courserec.recommendation.kafka.createKafkaConsumerProperties(kafkaConfig)
-        consumer = KafkaConsumer<String, String>(props)
-        consumer?.subscribe(listOf(kafkaConfig.topic))
+        startedAt = System.currentTimeMillis()
+        consumer = consumerFactory()
         running = true
 
-        Thread {
+        pollThread = Thread({ pollLoop(consumer!!) }, "rating-event-consumer").also { it.start() }
+
+        logger.info("Kafka consumer started for topic: {}", kafkaConfig.topic)
+    }
+
+    fun stop() {
+        running = false
+        // wakeup is the only thread-safe consumer call; the poll thread commits and closes
+        consumer?.wakeup()
+        pollThread?.join(SHUTDOWN_TIMEOUT_MS)
+        logger.info("Kafka consumer stopped")
+    }
+
+    private fun pollLoop(consumer: Consumer<String, String>) {
+        try {
+            consumer.subscribe(listOf(kafkaConfig.topic), RebalanceListener(consumer))
             while (running) {
                 try {
-                    val records: ConsumerRecords<String, String> = consumer?.poll(Duration.ofMillis(100)) ?: break
-                    for (record in records) {
-                        processRecord(record)
+                    val records = consumer.poll(Duration.ofMillis(100))
+                    for (partition in records.partitions()) {
+                        val worker = workers[partition] ?: continue
+                        consumer.pause(listOf(partition))
+                        worker.submit(records.records(partition))
                     }
+                    resumeFinishedPartitions(consumer)
+                    commitCompletedOffsets(consumer)
+                    reportLag(consumer)
+                } catch (e: WakeupException) {
+                    throw e
                 } catch (e: Exception) {
                     logger.error("Error consuming Kafka messages: {}", e.message, e)
                 }
             }
-        }.start()
+        } catch (e: WakeupException) {
+            // Expected on stop()
+        } finally {
+            try {
+                stopWorkers(workers.keys.toList())
+                commitCompletedOffsetsSync(consumer, workers.keys.toList())
+            } catch (e: Exception) {
+                logger.error("Error committing offsets on shutdown: {}", e.message, e)
+            } finally {
+                consumer.close()
+            }
+        }
+    }
 
-        logger.info("Kafka consumer started for topic: {}", kafkaConfig.topic)
+    private fun resumeFinishedPartitions(consumer: Consumer<String, String>) {
+        while (true) {
+            val partition = finishedPartitions.poll() ?: break
+            if (workers.containsKey(partition)) {
+                consumer.resume(listOf(partition))
+            }
+        }
     }
 
-    fun stop() {
-        running = false
-        consumer?.close()
-        logger.info("Kafka consumer stopped")
+    private fun commitCompletedOffsets(consumer: Consumer<String, String>) {
+        if (completedOffsets.isEmpty()) {
+            return
+        }
+        val offsets = HashMap(completedOffsets)
+        consumer.commitAsync(offsets) { _, exception ->
+            if (exception != null) {
+                // A later commit covers these offsets, or the records are redelivered after a rebalance
+                logger.warn("Failed to commit offsets {}: {}", offsets, exception.message)
+            }
+        }
+        offsets.forEach { (partition, offset) -> completedOffsets.remove(partition, offset) }
     }
 
-    private fun processRecord(record: ConsumerRecord<String, String>) {
-        try {
+    private fun commitCompletedOffsetsSync(consumer: Consumer<String, String>, partitions: Collection<TopicPartition>) {
+        val offsets = partitions.mapNotNull { partition -> completedOffsets.remove(partition)?.let { partition to it } }.toMap()
+        if (offsets.isNotEmpty()) {
+            consumer.commitSync(offsets)
+        }
+    }
+
+    private fun reportLag(consumer: Consumer<String, String>) {
+        val now = System.currentTimeMillis()
+        if (now - lastLagReport < LAG_REPORT_INTERVAL_MS) {
+            return
+        }
+        lastLagReport = now
+
+        for (partition in consumer.assignment()) {
+            val lag = consumer.currentLag(partition)
+            if (lag.isPresent) {
+                lagGauge(partition).set(lag.asLong)
+                logger.debug("Consumer lag - partition: {}, lag: {}", partition, lag.asLong)
+            }
+        }
+    }
+
+    private fun lagGauge(partition: TopicPartition): AtomicLong {
+        return lagByPartition.computeIfAbsent(partition) {
+            val lag = AtomicLong()
+            Gauge.builder("kafka.consumer.lag", lag) { it.get().toDouble() }
+                .tag("topic", partition.topic())
+                .tag("partition", partition.partition().toString())
+                .register(meterRegistry)
+            lag
+        }
+    }
+
+    private fun stopWorkers(partitions: Collection<TopicPartition>) {
+        val stopping = partitions.mapNotNull { workers.remove(it) }
+        stopping.forEach { it.shutdown() }
+        stopping.forEach { it.awaitTermination() }
+    }
+
+    private fun processBatch(records: List<ConsumerRecord<String, String>>) {
+        // Users are deduplicated per batch, so a burst of ratings triggers one recomputation per user
+        val updatedUserIds = LinkedHashSet<UUID>()
+        for (record in records) {
+            processRecord(record)?.let { updatedUserIds.add(it) }
+        }
+
+        if (recommendationRefresher != null && updatedUserIds.isNotEmpty()) {
+            recommendationRefresher.submit(updatedUserIds)
+        }
+    }
+
+    private fun processRecord(record: ConsumerRecord<String, String>): UUID? {
+        return try {
             val event = json.decodeFromString<RatingSubmittedEvent>(record.value())
             logger.info(
                 "Received rating event - ratingId: {}, userId: {}, courseId: {}, ratingValue: {}, partition: {}, offset: {}",
@@ -60,24 +213,135 @@ class RatingEventConsumer(
                 record.offset()
             )
 
-            // Invalidate cache for the user to trigger recalculation
-            recommendationService.invalidateCache(UUID.fromString(event.userId))
+            // Update the rating matrix and invalidate cache for the user to trigger recalculation
+            val userId = UUID.fromString(event.userId)
+            recommendationService.onRatingSubmitted(
+                userId,
+                UUID.fromString(event.courseId),
+                event.ratingValue
+            )
+            processedEvents.increment()
 
-            // Note: Actual recalculation will happen on next request
-            // For immediate recalculation, uncomment the following:
-            // recommendationService.generateRecommendations(UUID.fromString(event.userId))
+            // Recalculation happens on the next request, or right away when eager refresh is enabled
+            userId
         } catch (e: Exception) {
-            logger.error("Error processing rating event: {}", e.message, e)
+            // Malformed events are skipped so they cannot block the partition
+            failedEvents.increment()
+            logger.error(
+                "Error processing rating event at partition: {}, offset: {}: {}",
+                record.partition(),
+                record.offset(),
+                e.message,
+                e
+            )
+            null
+        }
+    }
+
+    private inner class PartitionWorker(private val partition: TopicPartition) {
+        private val executor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "rating-events-${partition.topic()}-${partition.partition()}")
+        }
+
+        fun submit(records: List<ConsumerRecord<String, String>>) {
+            executor.execute {
+                try {
+                    processBatch(records)
+                } catch (e: Exception) {
+                    logger.error("Error processing rating events for partition: {}", partition, e)
+                } finally {
+                    completedOffsets[partition] = OffsetAndMetadata(records.last().offset() + 1)
+                    finishedPartitions.add(partition)
+                }
+            }
+        }
+
+        fun shutdown() {
+            executor.shutdown()
+        }
+
+        fun awaitTermination() {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.warn("Worker for partition {} did not finish within {} ms", partition, SHUTDOWN_TIMEOUT_MS)
+            }
         }
     }
+
+    // Rebalance callbacks run on the poll thread inside poll()
+    private inner class RebalanceListener(
+        private val consumer: Consumer<String, String>
+    ) : ConsumerRebalanceListener {
+        override fun onPartitionsAssigned(partitions: Collection<TopicPartition>) {
+            for (partition in partitions) {
+                workers.getOrPut(partition) { PartitionWorker(partition) }
+            }
+            seekUncommittedToStart(partitions)
+            logger.info("Assigned partitions: {}", partitions)
+        }
+
+        private fun seekUncommittedToStart(partitions: Collection<TopicPartition>) {
+            if (partitions.isEmpty()) {
+                return
+            }
+            val committed = consumer.committed(partitions.toSet())
+            val uncommitted = partitions.filter { committed[it] == null }
+            if (uncommitted.isEmpty()) {
+                return
+            }
+            val startOffsets = consumer.offsetsForTimes(uncommitted.associateWith { startedAt })
+            for (partition in uncommitted) {
+                // No event since the start yet, so the end of the partition is where it starts
+                val offset = startOffsets[partition]
+                if (offset != null) {
+                    consumer.seek(partition, offset.offset())
+                } else {
+                    consumer.seekToEnd(listOf(partition))
+                }
+            }
+            logger.info("Partitions without committed offsets start at the instance start: {}", uncommitted)
+        }
+
+        override fun onPartitionsRevoked(partitions: Collection<TopicPartition>) {
+            // Finish in-flight batches and commit them before another consumer takes over
+            stopWorkers(partitions)
+            commitCompletedOffsetsSync(consumer, partitions)
+            removePartitionState(partitions)
+            logger.info("Revoked partitions: {}", partitions)
+        }
+
+        override fun onPartitionsLost(partitions: Collection<TopicPartition>) {
+            // Another consumer may already own these partitions, so nothing is committed
+            stopWorkers(partitions)
+            partitions.forEach { completedOffsets.remove(it) }
+            removePartitionState(partitions)
+            logger.warn("Lost partitions: {}", partitions)
+        }
+
+        private fun removePartitionState(partitions: Collection<TopicPartition>) {
+            finishedPartitions.removeAll(partitions.toSet())
+            for (partition in partitions) {
+                lagByPartition.remove(partition)?.let {
+                    meterRegistry.find("kafka.consumer.lag")
+                        .tag("partition", partition.partition().toString())
+                        .gauge()
+                        ?.let { gauge -> meterRegistry.remove(gauge) }
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val SHUTDOWN_TIMEOUT_MS = 10_000L
+        private const val LAG_REPORT_INTERVAL_MS = 10_000L
+    }
 }
 
+// Field names follow the snake_case JSON produced by rating-service
 @kotlinx.serialization.Serializable
 data class RatingSubmittedEvent(
-    val ratingId: String,
-    val userId: String,
-    val courseId: String,
-    val ratingValue: Int,
-    val submittedAt: String
+    @SerialName("rating_id") val ratingId: String,
+    @SerialName("user_id") val userId: String,
+    @SerialName("course_id") val courseId: String,
+    @SerialName("rating_value") val ratingValue: Int,
+    @SerialName("submitted_at") val submittedAt: String? = null
 )
-
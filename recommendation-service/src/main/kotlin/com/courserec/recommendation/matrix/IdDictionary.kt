@@ -0,0 +1,48 @@
+package com.courserec.recommendation.matrix
+
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Interns UUIDs into dense int ids (0, 1, 2, ...) so hot loops can work on primitive arrays.
+ * Ids are never released; lookups are lock-free, interning new ids is serialized.
+ */
+class IdDictionary(initialCapacity: Int = 1024) {
+    private val indexes = ConcurrentHashMap<UUID, Int>(initialCapacity)
+
+    @Volatile
+    private var ids = arrayOfNulls<UUID>(initialCapacity)
+
+    @Volatile
+    var size = 0
+        private set
+
+    /**
+     * Return the id for the UUID, assigning the next free one if it has not been seen before
+     */
+    fun intern(id: UUID): Int {
+        indexes[id]?.let { return it }
+        synchronized(this) {
+            indexes[id]?.let { return it }
+            val index = size
+            if (index == ids.size) {
+                ids = ids.copyOf(index * 2)
+            }
+            ids[index] = id
+            indexes[id] = index
+            size = index + 1
+            return index
+        }
+    }
+
+    /**
+     * Return the id for the UUID, or [NOT_FOUND] if it has never been interned
+     */
+    fun indexOf(id: UUID): Int = indexes[id] ?: NOT_FOUND
+
+    fun uuidAt(index: Int): UUID = ids[index] ?: throw IndexOutOfBoundsException("Unknown id: $index")
+
+    companion object {
+        const val NOT_FOUND = -1
+    }
+}
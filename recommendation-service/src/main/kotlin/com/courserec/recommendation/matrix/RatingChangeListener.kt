@@ -0,0 +1,12 @@
+package com.courserec.recommendation.matrix
+
+/**
+ * Receives every rating change applied to a [RatingMatrix].
+ *
+ * Callbacks run on the writing thread while the matrix write lock is held, so they are
+ * delivered in write order and must be quick. [previousValue] is [RatingMatrix.NO_RATING]
+ * for a new rating.
+ */
+fun interface RatingChangeListener {
+    fun onRatingChanged(userIndex: Int, courseIndex: Int, previousValue: Int, ratingValue: Int)
+}
@@ -0,0 +1,269 @@
+package com.courserec.recommendation.matrix
+
+import java.util.UUID
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Resident user x course rating matrix.
+ *
+ * User and course UUIDs are interned into dense int ids and every user row is a
+ * [SparseVector] of course ids, so similarity scoring runs on primitive arrays.
+ * The same ratings are also indexed by course (course -> raters), which lets the
+ * neighbor search visit only users that share at least one course with the target.
+ * Rows are swapped atomically on every write; readers never lock while the Kafka
+ * consumer applies updates. The bootstrap goes through [bulkLoad] instead, which
+ * builds each row and column once rather than copying it for every rating.
+ */
+class RatingMatrix {
+    val users = IdDictionary()
+    val courses = IdDictionary()
+
+    @Volatile
+    private var rows = AtomicReferenceArray<SparseVector>(1024)
+
+    @Volatile
+    private var columns = AtomicReferenceArray<SparseVector>(1024)
+    private val ratings = AtomicInteger()
+    private val listeners = CopyOnWriteArrayList<RatingChangeListener>()
+
+    fun addListener(listener: RatingChangeListener) {
+        listeners.add(listener)
+    }
+
+    /**
+     * Insert or replace a rating and return the previous value, or [NO_RATING] if the user had not rated the course
+     */
+    fun upsert(userId: UUID, courseId: UUID, ratingValue: Int): Int {
+        require(ratingValue in 1..Byte.MAX_VALUE) { "Rating value out of range: $ratingValue" }
+        val userIndex = users.intern(userId)
+        val courseIndex = courses.intern(courseId)
+
+        synchronized(this) {
+            val row = row(userIndex)
+            val previous = row[courseIndex]
+            rows = ensureCapacity(rows, userIndex)
+            rows.set(userIndex, row.with(courseIndex, ratingValue))
+            columns = ensureCapacity(columns, courseIndex)
+            columns.set(courseIndex, column(courseIndex).with(userIndex, ratingValue))
+            if (previous == NO_RATING) {
+                ratings.incrementAndGet()
+            }
+            for (listener in listeners) {
+                listener.onRatingChanged(userIndex, courseIndex, previous, ratingValue)
+            }
+            return previous
+        }
+    }
+
+    /**
+     * Start a bulk load. Ratings added to it are published together by [BulkLoad.commit],
+     * building every row and column once instead of copying them on each rating.
+     */
+    fun bulkLoad(): BulkLoad = BulkLoad()
+
+    /**
+     * Buffers ratings as flat (user, course, value) arrays until [commit].
+     * Bootstrap data never overwrites ratings already in the matrix, which came from newer
+     * events, and the first of several ratings for the same user and course wins.
+     */
+    inner class BulkLoad internal constructor() {
+        private var userIndices = IntArray(1024)
+        private var courseIndices = IntArray(1024)
+        private var ratingValues = ByteArray(1024)
+        private var size = 0
+
+        fun add(userId: UUID, courseId: UUID, ratingValue: Int) {
+            require(ratingValue in 1..Byte.MAX_VALUE) { "Rating value out of range: $ratingValue" }
+            if (size == userIndices.size) {
+                val capacity = size * 2
+                userIndices = userIndices.copyOf(capacity)
+                courseIndices = courseIndices.copyOf(capacity)
+                ratingValues = ratingValues.copyOf(capacity)
+            }
+            userIndices[size] = users.intern(userId)
+            courseIndices[size] = courses.intern(courseId)
+            ratingValues[size] = ratingValue.toByte()
+            size++
+        }
+
+        /**
+         * Publish the buffered ratings and return how many were added
+         */
+        fun commit(): Int {
+            synchronized(this@RatingMatrix) {
+                // Entries grouped by user and sorted by course; the entry number breaks ties so the first wins
+                val byUser = groupSorted(userIndices, courseIndices, size, users.size)
+                val added = IntArray(size)
+                var addedCount = 0
+
+                rows = ensureCapacity(rows, users.size - 1)
+                forEachGroup(byUser, userIndices) { userIndex, from, to ->
+                    val existing = row(userIndex)
+                    val indices = IntArray(existing.size + to - from)
+                    val values = ByteArray(indices.size)
+                    var count = 0
+                    var i = 0
+                    var previousCourse = -1
+                    for (k in from until to) {
+                        val entry = byUser[k].toInt()
+                        val courseIndex = courseIndices[entry]
+                        if (courseIndex == previousCourse) {
+                            continue
+                        }
+                        previousCourse = courseIndex
+                        while (i < existing.size && existing.indices[i] < courseIndex) {
+                            indices[count] = existing.indices[i]
+                            values[count++] = existing.values[i++]
+                        }
+                        if (i < existing.size && existing.indices[i] == courseIndex) {
+                            // Event data already in the matrix is newer than the bootstrap
+                            continue
+                        }
+                        indices[count] = courseIndex
+                        values[count++] = ratingValues[entry]
+                        added[addedCount++] = entry
+                    }
+                    while (i < existing.size) {
+                        indices[count] = existing.indices[i]
+                        values[count++] = existing.values[i++]
+                    }
+                    rows.set(userIndex, SparseVector.ofSorted(indices.copyOf(count), values.copyOf(count)))
+                }
+
+                // Added ratings are new in their columns too, so columns only need a merge
+                val addedCourses = IntArray(addedCount) { courseIndices[added[it]] }
+                val addedUsers = IntArray(addedCount) { userIndices[added[it]] }
+                val byCourse = groupSorted(addedCourses, addedUsers, addedCount, courses.size)
+                columns = ensureCapacity(columns, courses.size - 1)
+                forEachGroup(byCourse, addedCourses) { courseIndex, from, to ->
+                    val existing = column(courseIndex)
+                    val indices = IntArray(existing.size + to - from)
+                    val values = ByteArray(indices.size)
+                    var count = 0
+                    var i = 0
+                    for (k in from until to) {
+                        val entry = byCourse[k].toInt()
+                        val userIndex = addedUsers[entry]
+                        while (i < existing.size && existing.indices[i] < userIndex) {
+                            indices[count] = existing.indices[i]
+                            values[count++] = existing.values[i++]
+                        }
+                        indices[count] = userIndex
+                        values[count++] = ratingValues[added[entry]]
+                    }
+                    while (i < existing.size) {
+                        indices[count] = existing.indices[i]
+                        values[count++] = existing.values[i++]
+                    }
+                    columns.set(courseIndex, SparseVector.ofSorted(indices, values))
+                }
+
+                ratings.addAndGet(addedCount)
+                for (k in 0 until addedCount) {
+                    val entry = added[k]
+                    for (listener in listeners) {
+                        listener.onRatingChanged(userIndices[entry], courseIndices[entry], NO_RATING, ratingValues[entry].toInt())
+                    }
+                }
+                size = 0
+                return addedCount
+            }
+        }
+
+        /**
+         * Order entries 0 until [count] by group, then by key, then by entry number. Each result
+         * packs the key in the high and the entry number in the low 32 bits; a counting sort by
+         * group is followed by one sort per group.
+         */
+        private fun groupSorted(groups: IntArray, keys: IntArray, count: Int, groupCount: Int): LongArray {
+            val offsets = IntArray(groupCount + 1)
+            for (k in 0 until count) {
+                offsets[groups[k] + 1]++
+            }
+            for (g in 0 until groupCount) {
+                offsets[g + 1] += offsets[g]
+            }
+            val next = offsets.copyOf(groupCount)
+            val sorted = LongArray(count)
+            for (k in 0 until count) {
+                sorted[next[groups[k]]++] = (keys[k].toLong() shl 32) or k.toLong()
+            }
+            for (g in 0 until groupCount) {
+                if (offsets[g + 1] - offsets[g] > 1) {
+                    sorted.sort(offsets[g], offsets[g + 1])
+                }
+            }
+            return sorted
+        }
+
+        private inline fun forEachGroup(sorted: LongArray, groups: IntArray, action: (group: Int, from: Int, to: Int) -> Unit) {
+            var from = 0
+            while (from < sorted.size) {
+                val group = groups[sorted[from].toInt()]
+                var to = from + 1
+                while (to < sorted.size && groups[sorted[to].toInt()] == group) {
+                    to++
+                }
+                action(group, from, to)
+                from = to
+            }
+        }
+    }
+
+    private fun ensureCapacity(
+        current: AtomicReferenceArray<SparseVector>,
+        index: Int
+    ): AtomicReferenceArray<SparseVector> {
+        if (index < current.length()) {
+            return current
+        }
+        var capacity = current.length()
+        while (capacity <= index) {
+            capacity *= 2
+        }
+        val grown = AtomicReferenceArray<SparseVector>(capacity)
+        for (i in 0 until current.length()) {
+            grown.set(i, current.get(i))
+        }
+        return grown
+    }
+
+    /**
+     * Return the ratings of a user by dense id; unknown users get an empty row
+     */
+    fun row(userIndex: Int): SparseVector {
+        val current = rows
+        if (userIndex < 0 || userIndex >= current.length()) {
+            return SparseVector.EMPTY
+        }
+        return current.get(userIndex) ?: SparseVector.EMPTY
+    }
+
+    fun row(userId: UUID): SparseVector = row(users.indexOf(userId))
+
+    /**
+     * Return the users who rated a course by dense id, with their rating values
+     */
+    fun column(courseIndex: Int): SparseVector {
+        val current = columns
+        if (courseIndex < 0 || courseIndex >= current.length()) {
+            return SparseVector.EMPTY
+        }
+        return current.get(courseIndex) ?: SparseVector.EMPTY
+    }
+
+    val userCount: Int
+        get() = users.size
+
+    val courseCount: Int
+        get() = courses.size
+
+    val ratingCount: Int
+        get() = ratings.get()
+
+    companion object {
+        const val NO_RATING = 0
+    }
+}
@@ -0,0 +1,58 @@
+package com.courserec.recommendation.matrix
+
+import com.courserec.recommendation.cache.SingleFlight
+import com.courserec.recommendation.client.RatingServiceClient
+import org.slf4j.LoggerFactory
+
+/**
+ * Bootstraps the [RatingMatrix] from rating-service exactly once.
+ *
+ * The load is lazy because rating-service only serves authenticated callers, so the
+ * first request's token is used. Requests arriving during the load share its outcome,
+ * so a failed load is retried once by the next request rather than by every waiter.
+ * Rating events keep the matrix current afterwards.
+ */
+class RatingMatrixLoader(
+    private val ratingMatrix: RatingMatrix,
+    private val ratingServiceClient: RatingServiceClient
+) {
+    private val logger = LoggerFactory.getLogger(RatingMatrixLoader::class.java)
+    private val loads = SingleFlight<Unit, Boolean>()
+
+    @Volatile
+    var isLoaded = false
+        private set
+
+    suspend fun ensureLoaded(jwtToken: String? = null): Boolean {
+        if (isLoaded) {
+            return true
+        }
+
+        return loads.execute(Unit) {
+            if (!isLoaded) {
+                load(jwtToken)
+            }
+            isLoaded
+        }
+    }
+
+    private suspend fun load(jwtToken: String?) {
+        val startTime = System.currentTimeMillis()
+        try {
+            val bulkLoad = ratingMatrix.bulkLoad()
+            ratingServiceClient.forEachRating(jwtToken) { userId, courseId, ratingValue ->
+                bulkLoad.add(userId, courseId, ratingValue)
+            }
+            val loaded = bulkLoad.commit()
+            isLoaded = true
+            logger.info(
+                "Rating matrix loaded - ratings: {}, users: {}, took {} ms",
+                loaded,
+                ratingMatrix.userCount,
+                System.currentTimeMillis() - startTime
+            )
+        } catch (e: Exception) {
+            logger.error("Error loading rating matrix, will retry on next request: {}", e.message, e)
+        }
+    }
+}
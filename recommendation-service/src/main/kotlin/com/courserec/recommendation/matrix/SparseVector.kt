@@ -0,0 +1,62 @@
+package com.courserec.recommendation.matrix
+
+import java.util.Arrays
+
+/**
+ * Immutable sparse rating vector: ascending int ids with one byte rating value per id.
+ * Updates return a new vector, so readers can share instances without locking.
+ */
+class SparseVector private constructor(
+    val indices: IntArray,
+    val values: ByteArray
+) {
+    val size: Int
+        get() = indices.size
+
+    /**
+     * Return the value stored for the id, or [RatingMatrix.NO_RATING] if absent
+     */
+    operator fun get(index: Int): Int {
+        val position = Arrays.binarySearch(indices, index)
+        return if (position >= 0) values[position].toInt() else RatingMatrix.NO_RATING
+    }
+
+    operator fun contains(index: Int): Boolean = Arrays.binarySearch(indices, index) >= 0
+
+    /**
+     * Return a copy of this vector with the id set to the value
+     */
+    fun with(index: Int, value: Int): SparseVector {
+        val position = Arrays.binarySearch(indices, index)
+        if (position >= 0) {
+            if (values[position].toInt() == value) {
+                return this
+            }
+            val newValues = values.copyOf()
+            newValues[position] = value.toByte()
+            return SparseVector(indices, newValues)
+        }
+
+        val insertAt = -(position + 1)
+        val newIndices = IntArray(indices.size + 1)
+        val newValues = ByteArray(values.size + 1)
+        System.arraycopy(indices, 0, newIndices, 0, insertAt)
+        System.arraycopy(values, 0, newValues, 0, insertAt)
+        newIndices[insertAt] = index
+        newValues[insertAt] = value.toByte()
+        System.arraycopy(indices, insertAt, newIndices, insertAt + 1, indices.size - insertAt)
+        System.arraycopy(values, insertAt, newValues, insertAt + 1, values.size - insertAt)
+        return SparseVector(newIndices, newValues)
+    }
+
+    companion object {
+        val EMPTY = SparseVector(IntArray(0), ByteArray(0))
+
+        /**
+         * Wrap arrays that are already sorted by id and free of duplicates, without copying them
+         */
+        fun ofSorted(indices: IntArray, values: ByteArray): SparseVector {
+            return if (indices.isEmpty()) EMPTY else SparseVector(indices, values)
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.courserec.recommendation.model.dto
 
 import com.courserec.recommendation.client.CourseResponse as ClientCourseResponse
-import com.courserec.recommendation.model.Recommendation
+import com.courserec.recommendation.repository.RecommendationData
 
 @kotlinx.serialization.Serializable
 data class RecommendationResponse(
@@ -24,7 +24,7 @@ data class CourseResponse(
     val category: String? = null
 )
 
-fun Recommendation.toRecommendationItem(course: ClientCourseResponse?): RecommendationItem {
+fun RecommendationData.toRecommendationItem(course: ClientCourseResponse?): RecommendationItem {
     val courseResponse = course?.let {
         CourseResponse(
             id = it.id,
@@ -0,0 +1,63 @@
+package com.courserec.recommendation.repository
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import org.slf4j.LoggerFactory
+
+/**
+ * Deletes superseded recommendation generations in the background, off the write path.
+ *
+ * For [adoptUnversionedForMs] after start it also adopts sets written by instances that predate
+ * generations, which only exist while a rolling deploy replaces them; after that each pass is a
+ * plain delete instead of a scan of every generation 0 row.
+ */
+class RecommendationGenerationCollector(
+    private val recommendationRepository: RecommendationRepository,
+    meterRegistry: MeterRegistry,
+    private val adoptUnversionedForMs: Long = DEFAULT_ADOPT_UNVERSIONED_FOR_MS
+) {
+    private val logger = LoggerFactory.getLogger(RecommendationGenerationCollector::class.java)
+    private var scope: CoroutineScope? = null
+
+    private val deletedRows = Counter.builder("recommendations.generations.collected")
+        .description("Rows of superseded recommendation generations deleted")
+        .register(meterRegistry)
+
+    /**
+     * Collect every [intervalMs]
+     */
+    fun start(intervalMs: Long) {
+        val collectorScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+        scope = collectorScope
+        val adoptUntil = System.currentTimeMillis() + adoptUnversionedForMs
+        collectorScope.launch {
+            while (isActive) {
+                delay(intervalMs)
+                try {
+                    val adoptUnversioned = System.currentTimeMillis() < adoptUntil
+                    val deleted = recommendationRepository.deleteSupersededGenerations(adoptUnversioned)
+                    deletedRows.increment(deleted.toDouble())
+                    logger.debug("Deleted {} rows of superseded recommendation generations", deleted)
+                } catch (e: Exception) {
+                    logger.error("Error deleting superseded recommendation generations: {}", e.message, e)
+                }
+            }
+        }
+    }
+
+    fun stop() {
+        scope?.cancel()
+    }
+
+    companion object {
+        const val DEFAULT_INTERVAL_MS = 60_000L
+        const val DEFAULT_ADOPT_UNVERSIONED_FOR_MS = 3_600_000L
+    }
+}
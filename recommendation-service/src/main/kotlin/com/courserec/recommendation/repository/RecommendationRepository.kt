@@ -1,46 +1,239 @@
 package com.courserec.recommendation.repository
 
+import com.courserec.recommendation.database.RecommendationGenerationSequence
+import com.courserec.recommendation.database.RecommendationHeadTable
 import com.courserec.recommendation.database.RecommendationTable
-import com.courserec.recommendation.model.Recommendation
+import com.courserec.recommendation.database.adoptUnversionedRecommendations
+import com.courserec.recommendation.database.excluded
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
 import org.jetbrains.exposed.sql.*
 import org.jetbrains.exposed.sql.SqlExpressionBuilder.eq
-import org.jetbrains.exposed.sql.transactions.transaction
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.inList
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.lessEq
+import org.jetbrains.exposed.sql.transactions.experimental.newSuspendedTransaction
 import java.math.BigDecimal
 import kotlinx.datetime.Instant
 import kotlinx.datetime.Clock
 import java.util.UUID
 
-class RecommendationRepository {
-    fun saveRecommendations(recommendations: List<RecommendationData>) {
-        transaction {
-            // Delete old recommendations for the user
-            val userId = recommendations.firstOrNull()?.userId
-            if (userId != null) {
-                RecommendationTable.deleteWhere { RecommendationTable.userId eq userId }
+/**
+ * Exposed access to persisted recommendations, one row per recommended course. Every call runs
+ * in a suspended transaction on [dispatcher], so callers never block their own thread on JDBC.
+ *
+ * Each saved set gets a new generation: its rows are inserted next to the current ones and
+ * [RecommendationHeadTable] is flipped to it in the same transaction. Readers join through the
+ * head, so they never see a partially written set and never wait on a rewrite. Superseded
+ * generations are removed by [deleteSupersededGenerations].
+ *
+ * During a rolling deploy, instances that predate generations still delete all of a user's rows
+ * and insert a generation 0 set. A head left pointing at a deleted generation reads as a miss
+ * of the current set, and the user's latest rows are served instead.
+ */
+class RecommendationRepository(
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) : RecommendationStore {
+    /**
+     * Replace a user's recommendation set in a single transaction. The rows are written with one
+     * batched INSERT instead of one DAO entity per item.
+     */
+    suspend fun saveRecommendations(recommendations: List<RecommendationData>) {
+        val userId = recommendations.firstOrNull()?.userId ?: return
+        saveRecommendationSets(mapOf(userId to StoredRecommendations(recommendations, Clock.System.now())))
+    }
+
+    override suspend fun saveRecommendationSets(recommendationsByUser: Map<UUID, StoredRecommendations>) {
+        if (recommendationsByUser.isEmpty()) {
+            return
+        }
+
+        newSuspendedTransaction(dispatcher) {
+            // One generation for the whole batch, each user has at most one set in it
+            val generation = nextGeneration()
+
+            // Insert the new sets next to the current ones, stamped with the time each set was computed
+            val rows = recommendationsByUser.values.flatMap { stored -> stored.recommendations.map { it to stored.generatedAt } }
+            RecommendationTable.batchInsert(rows, shouldReturnGeneratedValues = false) { (data, generatedAt) ->
+                this[RecommendationTable.userId] = data.userId
+                this[RecommendationTable.courseId] = data.courseId
+                this[RecommendationTable.relevanceScore] = data.relevanceScore
+                this[RecommendationTable.generatedAt] = generatedAt
+                this[RecommendationTable.rank] = data.rank
+                this[RecommendationTable.generation] = generation
             }
 
-            // Insert new recommendations
-            recommendations.forEach { data ->
-                Recommendation.new {
-                    this.userId = data.userId
-                    this.courseId = data.courseId
-                    this.relevanceScore = data.relevanceScore
-                    this.generatedAt = Clock.System.now()
-                    this.rank = data.rank
-                }
+            // Flip the heads; a set computed before the current one, e.g. by another instance, stays superseded
+            val isNewer = RecommendationHeadTable.generatedAt lessEq RecommendationHeadTable.generatedAt.excluded()
+            RecommendationHeadTable.batchUpsert(
+                recommendationsByUser.entries,
+                RecommendationHeadTable.userId,
+                onUpdate = listOf(
+                    RecommendationHeadTable.generation to Case()
+                        .When(isNewer, RecommendationHeadTable.generation.excluded())
+                        .Else(RecommendationHeadTable.generation),
+                    RecommendationHeadTable.generatedAt to Case()
+                        .When(isNewer, RecommendationHeadTable.generatedAt.excluded())
+                        .Else(RecommendationHeadTable.generatedAt)
+                ),
+                shouldReturnGeneratedValues = false
+            ) { (userId, stored) ->
+                this[RecommendationHeadTable.userId] = userId
+                this[RecommendationHeadTable.generation] = generation
+                this[RecommendationHeadTable.generatedAt] = stored.generatedAt
             }
         }
     }
 
-    fun getRecommendationsByUserId(userId: UUID, limit: Int): List<Recommendation> {
-        return transaction {
-            Recommendation.find {
-                RecommendationTable.userId eq userId
-            }
-                .sortedBy { it.rank }
-                .take(limit)
+    private fun Transaction.nextGeneration(): Long {
+        return exec("SELECT nextval('${RecommendationGenerationSequence.identifier}')") { resultSet ->
+            resultSet.next()
+            resultSet.getLong(1)
+        } ?: error("No value from ${RecommendationGenerationSequence.identifier}")
+    }
+
+    override suspend fun findRecommendationsGeneratedAfter(userId: UUID, generatedAfter: Instant): StoredRecommendations? {
+        return newSuspendedTransaction(dispatcher) {
+            val rows = CURRENT_RECOMMENDATIONS
+                .slice(RECOMMENDATION_COLUMNS)
+                .select { (RecommendationHeadTable.userId eq userId) and (RecommendationHeadTable.generatedAt greaterEq generatedAfter) }
+                .orderBy(RecommendationTable.rank)
                 .toList()
+            toStoredRecommendations(rows, RecommendationHeadTable.generatedAt)
+                ?: findLatestRows(userId, generatedAfter, limit = null)
+        }
+    }
+
+    override suspend fun findLatestRecommendationSets(maxUsers: Int, generatedAfter: Instant): Map<UUID, StoredRecommendations> {
+        return newSuspendedTransaction(dispatcher) {
+            val userIds = RecommendationHeadTable
+                .slice(RecommendationHeadTable.userId)
+                .select { RecommendationHeadTable.generatedAt greaterEq generatedAfter }
+                .orderBy(RecommendationHeadTable.generatedAt, SortOrder.DESC)
+                .limit(maxUsers)
+                .map { it[RecommendationHeadTable.userId] }
+            if (userIds.isEmpty()) {
+                return@newSuspendedTransaction emptyMap()
+            }
+
+            val rowsByUser = CURRENT_RECOMMENDATIONS
+                .slice(RECOMMENDATION_COLUMNS)
+                .select { RecommendationHeadTable.userId inList userIds }
+                .orderBy(RecommendationTable.rank)
+                .groupBy { it[RecommendationTable.userId] }
+            userIds.mapNotNull { userId ->
+                rowsByUser[userId]?.let { toStoredRecommendations(it, RecommendationHeadTable.generatedAt) }?.let { userId to it }
+            }.toMap()
+        }
+    }
+
+    /**
+     * Read the newest generation of a user's rows regardless of the head, for a head whose
+     * generation was deleted by an older writer or a user only an older writer has saved
+     */
+    private fun findLatestRows(userId: UUID, generatedAfter: Instant, limit: Int?): StoredRecommendations? {
+        val generation = RecommendationTable
+            .slice(RecommendationTable.generation)
+            .select { (RecommendationTable.userId eq userId) and (RecommendationTable.generatedAt greaterEq generatedAfter) }
+            .orderBy(RecommendationTable.generatedAt, SortOrder.DESC)
+            .limit(1)
+            .firstOrNull()
+            ?.get(RecommendationTable.generation)
+            ?: return null
+        val query = RecommendationTable
+            .slice(LATEST_COLUMNS)
+            .select { (RecommendationTable.userId eq userId) and (RecommendationTable.generation eq generation) }
+            .orderBy(RecommendationTable.rank)
+        limit?.let { query.limit(it) }
+        return toStoredRecommendations(query.toList(), RecommendationTable.generatedAt)
+    }
+
+    private fun toStoredRecommendations(rows: List<ResultRow>, generatedAt: Column<Instant>): StoredRecommendations? {
+        if (rows.isEmpty()) {
+            return null
         }
+        val recommendations = rows.map { it.toRecommendationData() }
+        // Freshness is judged by the generation's timestamp, which the head carries for current sets
+        return StoredRecommendations(recommendations, rows.first()[generatedAt])
+    }
+
+    /**
+     * Load the best [limit] recommendations of a user from the current generation. Ordering and
+     * limit run in SQL, served by the (user_id, generation, rank) index.
+     */
+    override suspend fun getRecommendationsByUserId(userId: UUID, limit: Int): List<RecommendationData> {
+        return newSuspendedTransaction(dispatcher) {
+            val recommendations = CURRENT_RECOMMENDATIONS
+                .slice(RECOMMENDATION_COLUMNS)
+                .select { RecommendationHeadTable.userId eq userId }
+                .orderBy(RecommendationTable.rank)
+                .limit(limit)
+                .map { it.toRecommendationData() }
+            recommendations.ifEmpty {
+                findLatestRows(userId, Instant.DISTANT_PAST, limit)?.recommendations.orEmpty()
+            }
+        }
+    }
+
+    /**
+     * Delete the rows of generations that are no longer current, including sets that lost the
+     * flip to a newer one. With [adoptUnversioned], generation 0 sets written by an older version
+     * of the service during a rolling deploy are made current first where they are newer than
+     * the head or the head's generation is gone. Returns the number of deleted rows.
+     */
+    suspend fun deleteSupersededGenerations(adoptUnversioned: Boolean): Int {
+        return newSuspendedTransaction(dispatcher) {
+            if (adoptUnversioned) {
+                // Sets from writers that predate generations would otherwise look superseded
+                adoptUnversionedRecommendations()
+            }
+            RecommendationTable.deleteWhere {
+                notExists(
+                    RecommendationHeadTable.select {
+                        (RecommendationHeadTable.userId eq RecommendationTable.userId) and
+                            (RecommendationHeadTable.generation eq RecommendationTable.generation)
+                    }
+                )
+            }
+        }
+    }
+
+    private fun ResultRow.toRecommendationData(): RecommendationData {
+        return RecommendationData(
+            userId = this[RecommendationTable.userId],
+            courseId = this[RecommendationTable.courseId],
+            relevanceScore = this[RecommendationTable.relevanceScore],
+            rank = this[RecommendationTable.rank]
+        )
+    }
+
+    companion object {
+        // Rows of the generation each user's head points at
+        private val CURRENT_RECOMMENDATIONS = RecommendationTable.join(
+            RecommendationHeadTable,
+            JoinType.INNER,
+            additionalConstraint = {
+                (RecommendationTable.userId eq RecommendationHeadTable.userId) and
+                    (RecommendationTable.generation eq RecommendationHeadTable.generation)
+            }
+        )
+
+        // Everything a read needs, without the surrogate id
+        private val RECOMMENDATION_COLUMNS = listOf(
+            RecommendationTable.userId,
+            RecommendationTable.courseId,
+            RecommendationTable.relevanceScore,
+            RecommendationHeadTable.generatedAt,
+            RecommendationTable.rank
+        )
+
+        // The same without the head, for rows read by generation
+        private val LATEST_COLUMNS = listOf(
+            RecommendationTable.userId,
+            RecommendationTable.courseId,
+            RecommendationTable.relevanceScore,
+            RecommendationTable.generatedAt,
+            RecommendationTable.rank
+        )
     }
 }
 
@@ -51,3 +244,7 @@ data class RecommendationData(
     val rank: Int
 )
 
+data class StoredRecommendations(
+    val recommendations: List<RecommendationData>,
+    val generatedAt: Instant
+)
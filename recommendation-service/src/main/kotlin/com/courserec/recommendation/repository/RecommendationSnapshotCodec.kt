@@ -0,0 +1,45 @@
+package com.courserec.recommendation.repository
+
+import java.math.BigDecimal
+import java.math.RoundingMode
+import java.nio.ByteBuffer
+import java.util.UUID
+
+/**
+ * Packs a recommendation set into a snapshot payload: a format version byte followed by
+ * fixed-size entries of course id as two longs, relevance score as an unscaled int at
+ * [SCORE_SCALE] and rank as an int, in rank order
+ */
+object RecommendationSnapshotCodec {
+    const val FORMAT_VERSION: Byte = 1
+    const val ENTRY_SIZE = 24
+    const val SCORE_SCALE = 4
+
+    fun encode(recommendations: List<RecommendationData>): ByteArray {
+        val buffer = ByteBuffer.allocate(1 + recommendations.size * ENTRY_SIZE)
+        buffer.put(FORMAT_VERSION)
+        for (recommendation in recommendations.sortedBy { it.rank }) {
+            buffer.putLong(recommendation.courseId.mostSignificantBits)
+            buffer.putLong(recommendation.courseId.leastSignificantBits)
+            // Same precision as the relevance_score column of the row layout
+            buffer.putInt(recommendation.relevanceScore.setScale(SCORE_SCALE, RoundingMode.HALF_UP).unscaledValue().toInt())
+            buffer.putInt(recommendation.rank)
+        }
+        return buffer.array()
+    }
+
+    /**
+     * Decode up to [limit] entries of [userId]'s payload
+     */
+    fun decode(userId: UUID, payload: ByteArray, limit: Int = Int.MAX_VALUE): List<RecommendationData> {
+        check(payload.isNotEmpty() && payload[0] == FORMAT_VERSION) { "Unsupported recommendation snapshot format" }
+        check((payload.size - 1) % ENTRY_SIZE == 0) { "Corrupt recommendation snapshot length: ${payload.size}" }
+        val count = minOf((payload.size - 1) / ENTRY_SIZE, limit)
+        val buffer = ByteBuffer.wrap(payload, 1, payload.size - 1)
+        return List(count) {
+            val courseId = UUID(buffer.long, buffer.long)
+            val score = BigDecimal.valueOf(buffer.int.toLong(), SCORE_SCALE)
+            RecommendationData(userId, courseId, score, buffer.int)
+        }
+    }
+}
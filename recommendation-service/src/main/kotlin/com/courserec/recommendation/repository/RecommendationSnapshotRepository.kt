@@ -0,0 +1,95 @@
+package com.courserec.recommendation.repository
+
+import com.courserec.recommendation.database.RecommendationSnapshotTable
+import com.courserec.recommendation.database.excluded
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.datetime.Instant
+import org.jetbrains.exposed.sql.*
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.eq
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.lessEq
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.plus
+import org.jetbrains.exposed.sql.transactions.experimental.newSuspendedTransaction
+import java.util.UUID
+
+/**
+ * Stores each user's recommendation set as a single snapshot row, so that a refresh rewrites
+ * one row in place instead of deleting and reinserting up to 50 indexed rows, and a read is a
+ * primary key lookup. Every write of a newer set bumps the row's generation.
+ */
+class RecommendationSnapshotRepository(
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) : RecommendationStore {
+    override suspend fun saveRecommendationSets(recommendationsByUser: Map<UUID, StoredRecommendations>) {
+        if (recommendationsByUser.isEmpty()) {
+            return
+        }
+
+        newSuspendedTransaction(dispatcher) {
+            // A set computed before the stored one, e.g. by a slower instance, leaves the snapshot as it is
+            val isNewer = RecommendationSnapshotTable.generatedAt lessEq RecommendationSnapshotTable.generatedAt.excluded()
+            RecommendationSnapshotTable.batchUpsert(
+                recommendationsByUser.entries,
+                RecommendationSnapshotTable.userId,
+                onUpdate = listOf(
+                    RecommendationSnapshotTable.generation to Case()
+                        .When(isNewer, RecommendationSnapshotTable.generation + 1L)
+                        .Else(RecommendationSnapshotTable.generation),
+                    RecommendationSnapshotTable.generatedAt to Case()
+                        .When(isNewer, RecommendationSnapshotTable.generatedAt.excluded())
+                        .Else(RecommendationSnapshotTable.generatedAt),
+                    RecommendationSnapshotTable.payload to Case()
+                        .When(isNewer, RecommendationSnapshotTable.payload.excluded())
+                        .Else(RecommendationSnapshotTable.payload)
+                ),
+                shouldReturnGeneratedValues = false
+            ) { (userId, stored) ->
+                this[RecommendationSnapshotTable.userId] = userId
+                this[RecommendationSnapshotTable.generation] = 1L
+                this[RecommendationSnapshotTable.generatedAt] = stored.generatedAt
+                this[RecommendationSnapshotTable.payload] = RecommendationSnapshotCodec.encode(stored.recommendations)
+            }
+        }
+    }
+
+    override suspend fun findRecommendationsGeneratedAfter(userId: UUID, generatedAfter: Instant): StoredRecommendations? {
+        return newSuspendedTransaction(dispatcher) {
+            RecommendationSnapshotTable
+                .slice(RecommendationSnapshotTable.generatedAt, RecommendationSnapshotTable.payload)
+                .select { (RecommendationSnapshotTable.userId eq userId) and (RecommendationSnapshotTable.generatedAt greaterEq generatedAfter) }
+                .firstOrNull()
+                ?.toStoredRecommendations(userId)
+        }
+    }
+
+    override suspend fun findLatestRecommendationSets(maxUsers: Int, generatedAfter: Instant): Map<UUID, StoredRecommendations> {
+        return newSuspendedTransaction(dispatcher) {
+            RecommendationSnapshotTable
+                .select { RecommendationSnapshotTable.generatedAt greaterEq generatedAfter }
+                .orderBy(RecommendationSnapshotTable.generatedAt, SortOrder.DESC)
+                .limit(maxUsers)
+                .associate { row ->
+                    val userId = row[RecommendationSnapshotTable.userId]
+                    userId to row.toStoredRecommendations(userId)
+                }
+        }
+    }
+
+    override suspend fun getRecommendationsByUserId(userId: UUID, limit: Int): List<RecommendationData> {
+        return newSuspendedTransaction(dispatcher) {
+            RecommendationSnapshotTable
+                .slice(RecommendationSnapshotTable.payload)
+                .select { RecommendationSnapshotTable.userId eq userId }
+                .firstOrNull()
+                ?.let { RecommendationSnapshotCodec.decode(userId, it[RecommendationSnapshotTable.payload], limit) }
+                ?: emptyList()
+        }
+    }
+
+    private fun ResultRow.toStoredRecommendations(userId: UUID): StoredRecommendations {
+        return StoredRecommendations(
+            RecommendationSnapshotCodec.decode(userId, this[RecommendationSnapshotTable.payload]),
+            this[RecommendationSnapshotTable.generatedAt]
+        )
+    }
+}
@@ -0,0 +1,35 @@
+package com.courserec.recommendation.repository
+
+import kotlinx.datetime.Instant
+import java.util.UUID
+
+/**
+ * Persistent storage of the users' recommendation sets. Selected with `recommendation.storage.mode`.
+ */
+interface RecommendationStore {
+    /**
+     * Replace the recommendation sets of several users in one transaction
+     */
+    suspend fun saveRecommendationSets(recommendationsByUser: Map<UUID, StoredRecommendations>)
+
+    /**
+     * Load a user's persisted recommendation set if it was generated at or after [generatedAfter]
+     */
+    suspend fun findRecommendationsGeneratedAfter(userId: UUID, generatedAfter: Instant): StoredRecommendations?
+
+    /**
+     * Load the persisted sets of the users whose recommendations were generated most recently,
+     * newest first, skipping sets generated before [generatedAfter]
+     */
+    suspend fun findLatestRecommendationSets(maxUsers: Int, generatedAfter: Instant): Map<UUID, StoredRecommendations>
+
+    /**
+     * Load the best [limit] recommendations of a user, in rank order
+     */
+    suspend fun getRecommendationsByUserId(userId: UUID, limit: Int): List<RecommendationData>
+
+    companion object {
+        const val ROWS = "rows"
+        const val SNAPSHOT = "snapshot"
+    }
+}
@@ -0,0 +1,164 @@
+package com.courserec.recommendation.repository
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.withTimeoutOrNull
+import org.slf4j.LoggerFactory
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Persists generated recommendations off the request path.
+ *
+ * Writes are coalesced per user: only the latest set of a user is kept until it is flushed,
+ * so a burst of recomputations costs one write. A background flusher writes up to [batchSize]
+ * users per transaction. At most [capacity] users can be waiting; when that many are pending,
+ * [submit] suspends until a flush frees room.
+ */
+class RecommendationWriteBehind(
+    private val recommendationStore: RecommendationStore,
+    meterRegistry: MeterRegistry,
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+    private val flushIntervalMs: Long = DEFAULT_FLUSH_INTERVAL_MS
+) {
+    private val logger = LoggerFactory.getLogger(RecommendationWriteBehind::class.java)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val pending = ConcurrentHashMap<UUID, StoredRecommendations>()
+
+    // One permit per pending user, released once that user's set has been written
+    private val permits = Semaphore(capacity)
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+
+    private val flushTimer = Timer.builder("recommendations.writebehind.flush")
+        .description("Time spent writing one batch of recommendation sets")
+        .register(meterRegistry)
+    private val flushedUsers = Counter.builder("recommendations.writebehind.flushed")
+        .description("Recommendation sets written to the database")
+        .register(meterRegistry)
+    private val coalescedWrites = Counter.builder("recommendations.writebehind.coalesced")
+        .description("Recommendation sets replaced by a newer set before being written")
+        .register(meterRegistry)
+    private val failedFlushes = Counter.builder("recommendations.writebehind.failed")
+        .description("Batches that could not be written and were queued again")
+        .register(meterRegistry)
+
+    init {
+        Gauge.builder("recommendations.writebehind.pending", pending) { it.size.toDouble() }
+            .register(meterRegistry)
+    }
+
+    fun start() {
+        scope.launch {
+            while (true) {
+                // Flush every interval, or earlier once a full batch is waiting
+                val signal = withTimeoutOrNull(flushIntervalMs) { wakeUp.receiveCatching() }
+                if (signal != null && signal.isClosed) {
+                    break
+                }
+                flush()
+            }
+            drain()
+        }
+        logger.info("Recommendation write-behind started, capacity: {}, batchSize: {}", capacity, batchSize)
+    }
+
+    /**
+     * Queue a user's recommendation set, replacing any set of the same user that was not written yet
+     */
+    suspend fun submit(userId: UUID, recommendations: StoredRecommendations) {
+        if (pending.replace(userId, recommendations) != null) {
+            coalescedWrites.increment()
+            return
+        }
+
+        permits.acquire()
+        if (pending.put(userId, recommendations) != null) {
+            // Raced with another submit for the same user, which already holds a permit
+            permits.release()
+            coalescedWrites.increment()
+        }
+        if (pending.size >= batchSize) {
+            wakeUp.trySend(Unit)
+        }
+    }
+
+    fun stop() {
+        wakeUp.close()
+        runBlocking {
+            val drained = withTimeoutOrNull(SHUTDOWN_TIMEOUT_MS) {
+                scope.coroutineContext[Job]?.children?.forEach { it.join() }
+            }
+            if (drained == null) {
+                logger.warn("Recommendation write-behind did not drain within {} ms, {} users not written", SHUTDOWN_TIMEOUT_MS, pending.size)
+            }
+        }
+        scope.cancel()
+        logger.info("Recommendation write-behind stopped")
+    }
+
+    private suspend fun drain() {
+        while (pending.isNotEmpty()) {
+            if (!flush()) {
+                logger.warn("Giving up on {} pending recommendation sets at shutdown", pending.size)
+                return
+            }
+        }
+    }
+
+    /**
+     * Write up to [batchSize] pending users in one transaction. Returns false when the write failed.
+     */
+    private suspend fun flush(): Boolean {
+        val batch = HashMap<UUID, StoredRecommendations>()
+        for ((userId, recommendations) in pending) {
+            if (batch.size >= batchSize) {
+                break
+            }
+            // Skipped if a newer set arrived in the meantime; that set is picked up by a later flush
+            if (pending.remove(userId, recommendations)) {
+                batch[userId] = recommendations
+            }
+        }
+        if (batch.isEmpty()) {
+            return true
+        }
+
+        return try {
+            val sample = Timer.start()
+            recommendationStore.saveRecommendationSets(batch)
+            sample.stop(flushTimer)
+            flushedUsers.increment(batch.size.toDouble())
+            repeat(batch.size) { permits.release() }
+            true
+        } catch (e: Exception) {
+            failedFlushes.increment()
+            logger.error("Error writing recommendations for {} users", batch.size, e)
+            // Requeue unless a newer set already replaced it, in which case that set holds the permit
+            batch.forEach { (userId, recommendations) ->
+                if (pending.putIfAbsent(userId, recommendations) != null) {
+                    permits.release()
+                }
+            }
+            false
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 10_000
+        const val DEFAULT_BATCH_SIZE = 200
+        const val DEFAULT_FLUSH_INTERVAL_MS = 500L
+        private const val SHUTDOWN_TIMEOUT_MS = 10_000L
+    }
+}
@@ -0,0 +1,287 @@
+package com.courserec.recommendation.service
+
+import com.courserec.recommendation.matrix.RatingChangeListener
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.RatingMatrixLoader
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.stream.IntStream
+import kotlin.math.sqrt
+
+/**
+ * Precomputed item-item model: for every course, the [neighborCount] most similar courses.
+ *
+ * Similarity is the cosine of the two courses' rating columns over all users, with full
+ * column norms. The full model is rebuilt in the background; in between, rating events
+ * mark their course dirty and [applyPendingChanges] recomputes the dirty courses' lists
+ * and patches the new similarities into their neighbors' lists. Neighbor lists are
+ * immutable and swapped atomically, so serving never locks.
+ */
+class ItemSimilarityModel(
+    private val ratingMatrix: RatingMatrix,
+    private val neighborCount: Int = DEFAULT_NEIGHBOR_COUNT,
+    private val buildPool: ForkJoinPool = ForkJoinPool.commonPool()
+) : RatingChangeListener {
+    private val logger = LoggerFactory.getLogger(ItemSimilarityModel::class.java)
+
+    @Volatile
+    private var neighbors = AtomicReferenceArray<CourseNeighbors>(0)
+
+    // Sum of squared ratings per course, maintained from change events
+    @Volatile
+    private var squaredNorms = AtomicLongArray(1024)
+    private val dirtyCourses = ConcurrentHashMap.newKeySet<Int>()
+    private val accumulators = ThreadLocal.withInitial { DotAccumulator() }
+    private var scope: CoroutineScope? = null
+
+    @Volatile
+    var isBuilt = false
+        private set
+
+    // Called under the rating matrix lock, so updates to the norms never race each other
+    override fun onRatingChanged(userIndex: Int, courseIndex: Int, previousValue: Int, ratingValue: Int) {
+        if (courseIndex >= squaredNorms.length()) {
+            var capacity = squaredNorms.length()
+            while (capacity <= courseIndex) {
+                capacity *= 2
+            }
+            val grown = AtomicLongArray(capacity)
+            for (i in 0 until squaredNorms.length()) {
+                grown.set(i, squaredNorms.get(i))
+            }
+            squaredNorms = grown
+        }
+        squaredNorms.addAndGet(courseIndex, ratingValue.toLong() * ratingValue - previousValue.toLong() * previousValue)
+        dirtyCourses.add(courseIndex)
+    }
+
+    /**
+     * Return the neighbors of a course, most similar first; empty until the model is built
+     */
+    fun neighborsOf(courseIndex: Int): CourseNeighbors {
+        val current = neighbors
+        if (courseIndex < 0 || courseIndex >= current.length()) {
+            return CourseNeighbors.EMPTY
+        }
+        return current.get(courseIndex) ?: CourseNeighbors.EMPTY
+    }
+
+    /**
+     * Recompute the neighbor lists of every course
+     */
+    fun rebuild() {
+        val startTime = System.currentTimeMillis()
+        // Changes from here on are patched after the swap
+        dirtyCourses.clear()
+        val courseCount = ratingMatrix.courseCount
+        val built = AtomicReferenceArray<CourseNeighbors>(courseCount)
+
+        buildPool.submit {
+            IntStream.range(0, courseCount).parallel().forEach { courseIndex ->
+                built.set(courseIndex, computeNeighbors(courseIndex, accumulators.get(), null))
+            }
+        }.get()
+
+        synchronized(this) {
+            neighbors = built
+        }
+        isBuilt = true
+        logger.info("Item similarity model built - courses: {}, took {} ms", courseCount, System.currentTimeMillis() - startTime)
+    }
+
+    /**
+     * Recompute the courses whose ratings changed since the last build or patch, and update
+     * their similarity in the lists of the courses they share raters with. Returns the
+     * number of recomputed courses.
+     */
+    fun applyPendingChanges(): Int {
+        if (!isBuilt || dirtyCourses.isEmpty()) {
+            return 0
+        }
+        val changed = dirtyCourses.toIntArray()
+        changed.forEach { dirtyCourses.remove(it) }
+
+        val accumulator = accumulators.get()
+        synchronized(this) {
+            for (courseIndex in changed) {
+                val updated = computeNeighbors(courseIndex, accumulator) { neighborIndex, similarity ->
+                    setNeighbors(neighborIndex, neighborsOf(neighborIndex).with(courseIndex, similarity, neighborCount))
+                }
+                setNeighbors(courseIndex, updated)
+            }
+        }
+        return changed.size
+    }
+
+    /**
+     * Build the model once [ratingMatrixLoader] has bootstrapped the matrix and keep it current:
+     * pending changes are applied every [patchIntervalMs], and the model is rebuilt from scratch
+     * every [rebuildIntervalMs]
+     */
+    fun start(ratingMatrixLoader: RatingMatrixLoader, patchIntervalMs: Long, rebuildIntervalMs: Long) {
+        val modelScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+        scope = modelScope
+        modelScope.launch {
+            var lastBuild = 0L
+            while (isActive) {
+                try {
+                    // The matrix is bootstrapped by the first request; event ratings that arrive earlier,
+                    // or a partial load, would build neighbor lists for only a few courses
+                    val now = System.currentTimeMillis()
+                    if (ratingMatrixLoader.isLoaded && (!isBuilt || now - lastBuild >= rebuildIntervalMs)) {
+                        rebuild()
+                        lastBuild = now
+                    } else {
+                        applyPendingChanges()
+                    }
+                } catch (e: Exception) {
+                    logger.error("Error updating item similarity model: {}", e.message, e)
+                }
+                delay(patchIntervalMs)
+            }
+        }
+    }
+
+    fun stop() {
+        scope?.cancel()
+    }
+
+    private fun setNeighbors(courseIndex: Int, courseNeighbors: CourseNeighbors) {
+        var current = neighbors
+        if (courseIndex >= current.length()) {
+            var capacity = maxOf(current.length(), 16)
+            while (capacity <= courseIndex) {
+                capacity *= 2
+            }
+            val grown = AtomicReferenceArray<CourseNeighbors>(capacity)
+            for (i in 0 until current.length()) {
+                grown.set(i, current.get(i))
+            }
+            current = grown
+            neighbors = grown
+        }
+        current.set(courseIndex, courseNeighbors)
+    }
+
+    /**
+     * Score a course against every course it shares a rater with, and keep the best ones.
+     * Dot products are accumulated by walking the course's raters and their rows.
+     */
+    private fun computeNeighbors(
+        courseIndex: Int,
+        accumulator: DotAccumulator,
+        onSimilarity: ((Int, Double) -> Unit)?
+    ): CourseNeighbors {
+        val raters = ratingMatrix.column(courseIndex)
+        for (k in 0 until raters.size) {
+            val rating = raters.values[k].toLong()
+            val row = ratingMatrix.row(raters.indices[k])
+            for (m in 0 until row.size) {
+                val otherIndex = row.indices[m]
+                if (otherIndex != courseIndex) {
+                    accumulator.add(otherIndex, rating * row.values[m])
+                }
+            }
+        }
+
+        val norms = squaredNorms
+        val norm = sqrt(norms.get(courseIndex).toDouble())
+        val topCourses = TopKHeap(neighborCount)
+        accumulator.drain { otherIndex, dotProduct ->
+            val otherNorm = if (otherIndex < norms.length()) sqrt(norms.get(otherIndex).toDouble()) else 0.0
+            if (norm > 0.0 && otherNorm > 0.0) {
+                val similarity = dotProduct / (norm * otherNorm)
+                topCourses.offer(otherIndex, similarity)
+                onSimilarity?.invoke(otherIndex, similarity)
+            }
+        }
+        return CourseNeighbors.of(topCourses.toSortedList())
+    }
+
+    /**
+     * Sparse dot-product accumulator reused across courses by one thread
+     */
+    private class DotAccumulator {
+        private var dotProducts = LongArray(1024)
+        private var touched = IntArray(64)
+        private var touchedCount = 0
+
+        fun add(index: Int, value: Long) {
+            if (index >= dotProducts.size) {
+                dotProducts = dotProducts.copyOf(maxOf(index + 1, dotProducts.size * 2))
+            }
+            if (dotProducts[index] == 0L) {
+                if (touchedCount == touched.size) {
+                    touched = touched.copyOf(touchedCount * 2)
+                }
+                touched[touchedCount++] = index
+            }
+            dotProducts[index] += value
+        }
+
+        fun drain(action: (Int, Long) -> Unit) {
+            for (i in 0 until touchedCount) {
+                val index = touched[i]
+                action(index, dotProducts[index])
+                dotProducts[index] = 0L
+            }
+            touchedCount = 0
+        }
+    }
+
+    companion object {
+        const val DEFAULT_NEIGHBOR_COUNT = 50
+    }
+}
+
+/**
+ * Immutable neighbor list of one course, most similar first
+ */
+class CourseNeighbors private constructor(
+    val indices: IntArray,
+    val similarities: DoubleArray
+) {
+    val size: Int
+        get() = indices.size
+
+    /**
+     * Return a copy with the course's similarity replaced or inserted, keeping at most [capacity] entries
+     */
+    fun with(courseIndex: Int, similarity: Double, capacity: Int): CourseNeighbors {
+        val entries = ArrayList<Pair<Int, Double>>(size + 1)
+        for (i in 0 until size) {
+            if (indices[i] != courseIndex) {
+                entries.add(Pair(indices[i], similarities[i]))
+            }
+        }
+        if (entries.size < capacity || similarity > entries.last().second) {
+            entries.add(Pair(courseIndex, similarity))
+        }
+        entries.sortWith(compareByDescending<Pair<Int, Double>> { it.second }.thenBy { it.first })
+        return of(entries.take(capacity))
+    }
+
+    companion object {
+        val EMPTY = CourseNeighbors(IntArray(0), DoubleArray(0))
+
+        fun of(entries: List<Pair<Int, Double>>): CourseNeighbors {
+            if (entries.isEmpty()) {
+                return EMPTY
+            }
+            return CourseNeighbors(
+                IntArray(entries.size) { entries[it].first },
+                DoubleArray(entries.size) { entries[it].second }
+            )
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.courserec.recommendation.service
+
+import com.courserec.recommendation.matrix.RatingChangeListener
+import com.courserec.recommendation.matrix.RatingMatrix
+import java.util.BitSet
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReferenceArray
+import kotlin.random.Random
+
+/**
+ * Approximate neighbor search with MinHash locality-sensitive hashing.
+ *
+ * Every user has a MinHash signature of [bands] x [rows] values over their rated courses,
+ * so two users agree on a value with probability equal to the Jaccard similarity of their
+ * course sets. Users are bucketed by each band of their signature; the candidates for a
+ * query are the users sharing at least one bucket with the target, which are then ranked
+ * by exact cosine similarity. More bands raise recall and the candidate count, more rows
+ * per band lower both.
+ *
+ * Signatures only ever shrink as courses are added, so a new rating updates the user's
+ * signature and moves it between buckets in place.
+ */
+class LshNeighborSearch(
+    private val recommendationAlgorithm: RecommendationAlgorithm,
+    private val bands: Int = DEFAULT_BANDS,
+    private val rows: Int = DEFAULT_ROWS,
+    private val minUserRatings: Int = 3,
+    seed: Long = 0L
+) : NeighborSearch, RatingChangeListener {
+    private val hashCount = bands * rows
+    private val multipliers: LongArray
+    private val offsets: LongArray
+
+    @Volatile
+    private var signatures = AtomicReferenceArray<IntArray>(1024)
+    private val buckets = ConcurrentHashMap<Long, MutableSet<Int>>()
+
+    init {
+        val random = Random(seed)
+        multipliers = LongArray(hashCount) { random.nextLong() or 1L }
+        offsets = LongArray(hashCount) { random.nextLong() }
+    }
+
+    // Called under the rating matrix lock, so a user's signature has a single writer
+    override fun onRatingChanged(userIndex: Int, courseIndex: Int, previousValue: Int, ratingValue: Int) {
+        if (previousValue != RatingMatrix.NO_RATING) {
+            // A re-rating does not change the user's course set
+            return
+        }
+        ensureCapacity(userIndex)
+        val current = signatures.get(userIndex)
+        val updated = current?.copyOf() ?: IntArray(hashCount) { Int.MAX_VALUE }
+        for (i in 0 until hashCount) {
+            updated[i] = minOf(updated[i], hash(i, courseIndex))
+        }
+
+        for (band in 0 until bands) {
+            val oldKey = current?.let { bandKey(it, band) }
+            val newKey = bandKey(updated, band)
+            if (oldKey == newKey) {
+                continue
+            }
+            oldKey?.let { key ->
+                buckets[key]?.let { bucket ->
+                    bucket.remove(userIndex)
+                    if (bucket.isEmpty()) {
+                        buckets.remove(key, bucket)
+                    }
+                }
+            }
+            buckets.computeIfAbsent(newKey) { ConcurrentHashMap.newKeySet() }.add(userIndex)
+        }
+        signatures.set(userIndex, updated)
+    }
+
+    override suspend fun findSimilarUsers(targetUserIndex: Int, ratingMatrix: RatingMatrix, topN: Int): List<Pair<Int, Double>> {
+        val candidates = findCandidateUsers(targetUserIndex)
+        val targetRatings = ratingMatrix.row(targetUserIndex)
+        val topUsers = TopKHeap(topN)
+        var userIndex = candidates.nextSetBit(0)
+        while (userIndex >= 0) {
+            val ratings = ratingMatrix.row(userIndex)
+            if (ratings.size >= minUserRatings) {
+                val similarity = recommendationAlgorithm.calculateCosineSimilarity(targetRatings, ratings)
+                if (similarity > 0) {
+                    topUsers.offer(userIndex, similarity)
+                }
+            }
+            userIndex = candidates.nextSetBit(userIndex + 1)
+        }
+        return topUsers.toSortedList()
+    }
+
+    /**
+     * Collect the users sharing at least one bucket with the target
+     */
+    fun findCandidateUsers(targetUserIndex: Int): BitSet {
+        val candidates = BitSet()
+        val signature = signatureOf(targetUserIndex) ?: return candidates
+        for (band in 0 until bands) {
+            buckets[bandKey(signature, band)]?.forEach { candidates.set(it) }
+        }
+        candidates.clear(targetUserIndex)
+        return candidates
+    }
+
+    private fun signatureOf(userIndex: Int): IntArray? {
+        val current = signatures
+        if (userIndex < 0 || userIndex >= current.length()) {
+            return null
+        }
+        return current.get(userIndex)
+    }
+
+    private fun ensureCapacity(userIndex: Int) {
+        val current = signatures
+        if (userIndex < current.length()) {
+            return
+        }
+        var capacity = current.length()
+        while (capacity <= userIndex) {
+            capacity *= 2
+        }
+        val grown = AtomicReferenceArray<IntArray>(capacity)
+        for (i in 0 until current.length()) {
+            grown.set(i, current.get(i))
+        }
+        signatures = grown
+    }
+
+    private fun hash(function: Int, courseIndex: Int): Int {
+        return ((multipliers[function] * (courseIndex + 1L) + offsets[function]) ushr 33).toInt()
+    }
+
+    private fun bandKey(signature: IntArray, band: Int): Long {
+        var key = band.toLong()
+        for (row in band * rows until (band + 1) * rows) {
+            key = key * -7046029254386353131L + signature[row]
+        }
+        return key
+    }
+
+    companion object {
+        const val DEFAULT_BANDS = 16
+        const val DEFAULT_ROWS = 4
+    }
+}
@@ -0,0 +1,262 @@
+package com.courserec.recommendation.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.RatingMatrixLoader
+import com.courserec.recommendation.matrix.SparseVector
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ForkJoinPool
+import java.util.stream.IntStream
+import kotlin.random.Random
+
+/**
+ * Latent factor model trained with alternating least squares on the rating matrix.
+ *
+ * Each iteration solves every user's factors against the fixed course factors, then every
+ * course's factors against the fixed user factors; both halves run in parallel on the
+ * training pool. Factors are stored row-major in flat float arrays. Serving folds the
+ * user in from their current ratings, so ratings made since the last training are used
+ * without retraining, then scores courses by dot product.
+ */
+class MatrixFactorizationModel(
+    private val ratingMatrix: RatingMatrix,
+    val rank: Int = DEFAULT_RANK,
+    private val regularization: Double = DEFAULT_REGULARIZATION,
+    private val iterations: Int = DEFAULT_ITERATIONS,
+    private val trainingPool: ForkJoinPool = ForkJoinPool.commonPool()
+) {
+    private val logger = LoggerFactory.getLogger(MatrixFactorizationModel::class.java)
+    private val workspaces = ThreadLocal.withInitial { Workspace(rank) }
+    private var scope: CoroutineScope? = null
+
+    @Volatile
+    private var factors: Factors? = null
+
+    val isTrained: Boolean
+        get() = factors != null
+
+    val trainedCourseCount: Int
+        get() = factors?.courseCount ?: 0
+
+    /**
+     * Train new factors from the current ratings and publish them when done
+     */
+    fun train(seed: Int = 0) {
+        val startTime = System.currentTimeMillis()
+        val userCount = ratingMatrix.userCount
+        val courseCount = ratingMatrix.courseCount
+        val userFactors = FloatArray(userCount * rank)
+        val courseFactors = FloatArray(courseCount * rank)
+        val random = Random(seed)
+        for (i in courseFactors.indices) {
+            courseFactors[i] = INITIAL_SCALE * random.nextFloat()
+        }
+
+        trainingPool.submit {
+            repeat(iterations) {
+                IntStream.range(0, userCount).parallel().forEach { userIndex ->
+                    solve(ratingMatrix.row(userIndex), courseFactors, courseCount, userFactors, userIndex)
+                }
+                IntStream.range(0, courseCount).parallel().forEach { courseIndex ->
+                    solve(ratingMatrix.column(courseIndex), userFactors, userCount, courseFactors, courseIndex)
+                }
+            }
+        }.get()
+
+        factors = Factors(courseFactors, courseCount)
+        logger.info(
+            "Matrix factorization trained - users: {}, courses: {}, rank: {}, took {} ms",
+            userCount,
+            courseCount,
+            rank,
+            System.currentTimeMillis() - startTime
+        )
+    }
+
+    /**
+     * Fold the user in against the trained course factors and score every unrated course
+     * by dot product. Returns (courseIndex, predicted rating) pairs, best first, or an empty
+     * list when the model is not trained or none of the user's courses has factors.
+     */
+    fun recommend(userRatings: SparseVector, limit: Int): List<Pair<Int, Double>> {
+        val current = factors ?: return emptyList()
+        val workspace = workspaces.get()
+        val userFactor = FloatArray(rank)
+        if (!solve(userRatings, current.courseFactors, current.courseCount, userFactor, 0, workspace)) {
+            return emptyList()
+        }
+
+        val courseFactors = current.courseFactors
+        val rated = userRatings.indices
+        var nextRated = 0
+        val topCourses = TopKHeap(limit)
+        for (courseIndex in 0 until current.courseCount) {
+            // Rated ids are ascending, so skipping them is a merge rather than a lookup
+            while (nextRated < rated.size && rated[nextRated] < courseIndex) {
+                nextRated++
+            }
+            if (nextRated < rated.size && rated[nextRated] == courseIndex) {
+                continue
+            }
+            val offset = courseIndex * rank
+            var score = 0f
+            for (f in 0 until rank) {
+                score += userFactor[f] * courseFactors[offset + f]
+            }
+            topCourses.offer(courseIndex, score.toDouble())
+        }
+        return topCourses.toSortedList()
+    }
+
+    /**
+     * Train as soon as [ratingMatrixLoader] has bootstrapped the matrix, then retrain every [trainIntervalMs]
+     */
+    fun start(ratingMatrixLoader: RatingMatrixLoader, trainIntervalMs: Long) {
+        val modelScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+        scope = modelScope
+        modelScope.launch {
+            while (isActive) {
+                // The matrix is bootstrapped by the first request; ratings from events that arrive
+                // earlier, or from a partial load, would train factors for only a few courses
+                if (!ratingMatrixLoader.isLoaded) {
+                    delay(IDLE_POLL_MS)
+                    continue
+                }
+                try {
+                    train()
+                } catch (e: Exception) {
+                    logger.error("Error training matrix factorization: {}", e.message, e)
+                }
+                delay(trainIntervalMs)
+            }
+        }
+    }
+
+    fun stop() {
+        scope?.cancel()
+    }
+
+    private fun solve(
+        ratings: SparseVector,
+        fixedFactors: FloatArray,
+        fixedCount: Int,
+        target: FloatArray,
+        targetIndex: Int
+    ) {
+        solve(ratings, fixedFactors, fixedCount, target, targetIndex, workspaces.get())
+    }
+
+    /**
+     * Solve (FᵀF + λnI) x = Fᵀr for one row, where F holds the factors of the rated ids,
+     * and write x into [target] at [targetIndex]. Returns false when no rated id has factors.
+     */
+    private fun solve(
+        ratings: SparseVector,
+        fixedFactors: FloatArray,
+        fixedCount: Int,
+        target: FloatArray,
+        targetIndex: Int,
+        workspace: Workspace
+    ): Boolean {
+        val gram = workspace.gram
+        val rhs = workspace.rhs
+        gram.fill(0.0)
+        rhs.fill(0.0)
+
+        var count = 0
+        for (k in 0 until ratings.size) {
+            val index = ratings.indices[k]
+            if (index >= fixedCount) {
+                // Rated after the factors were trained
+                continue
+            }
+            val rating = ratings.values[k].toDouble()
+            val offset = index * rank
+            for (i in 0 until rank) {
+                val fi = fixedFactors[offset + i].toDouble()
+                rhs[i] += rating * fi
+                for (j in 0..i) {
+                    gram[i * rank + j] += fi * fixedFactors[offset + j]
+                }
+            }
+            count++
+        }
+
+        val targetOffset = targetIndex * rank
+        if (count == 0) {
+            target.fill(0f, targetOffset, targetOffset + rank)
+            return false
+        }
+
+        val lambda = regularization * count
+        for (i in 0 until rank) {
+            gram[i * rank + i] += lambda
+        }
+        choleskySolve(gram, rhs)
+        for (i in 0 until rank) {
+            target[targetOffset + i] = rhs[i].toFloat()
+        }
+        return true
+    }
+
+    /**
+     * Solve A x = b in place for a symmetric positive definite A given by its lower triangle.
+     * A is overwritten by its Cholesky factor and b by the solution.
+     */
+    private fun choleskySolve(a: DoubleArray, b: DoubleArray) {
+        for (j in 0 until rank) {
+            var diagonal = a[j * rank + j]
+            for (k in 0 until j) {
+                diagonal -= a[j * rank + k] * a[j * rank + k]
+            }
+            val pivot = Math.sqrt(diagonal)
+            a[j * rank + j] = pivot
+            for (i in j + 1 until rank) {
+                var value = a[i * rank + j]
+                for (k in 0 until j) {
+                    value -= a[i * rank + k] * a[j * rank + k]
+                }
+                a[i * rank + j] = value / pivot
+            }
+        }
+        // Forward substitution with L, then back substitution with Lᵀ
+        for (i in 0 until rank) {
+            var value = b[i]
+            for (k in 0 until i) {
+                value -= a[i * rank + k] * b[k]
+            }
+            b[i] = value / a[i * rank + i]
+        }
+        for (i in rank - 1 downTo 0) {
+            var value = b[i]
+            for (k in i + 1 until rank) {
+                value -= a[k * rank + i] * b[k]
+            }
+            b[i] = value / a[i * rank + i]
+        }
+    }
+
+    private class Factors(
+        val courseFactors: FloatArray,
+        val courseCount: Int
+    )
+
+    private class Workspace(rank: Int) {
+        val gram = DoubleArray(rank * rank)
+        val rhs = DoubleArray(rank)
+    }
+
+    companion object {
+        const val DEFAULT_RANK = 16
+        const val DEFAULT_REGULARIZATION = 0.1
+        const val DEFAULT_ITERATIONS = 10
+        private const val INITIAL_SCALE = 0.1f
+        private const val IDLE_POLL_MS = 5_000L
+    }
+}
@@ -0,0 +1,30 @@
+package com.courserec.recommendation.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+
+/**
+ * Finds the users most similar to a target user for user-user collaborative filtering.
+ * Selected with `recommendation.neighborSearch.mode`.
+ */
+interface NeighborSearch {
+    /**
+     * Return up to [topN] (userIndex, similarity) pairs, most similar first
+     */
+    suspend fun findSimilarUsers(targetUserIndex: Int, ratingMatrix: RatingMatrix, topN: Int): List<Pair<Int, Double>>
+
+    companion object {
+        const val EXACT = "exact"
+        const val LSH = "lsh"
+    }
+}
+
+/**
+ * Scores every user who shares a course with the target
+ */
+class ExactNeighborSearch(
+    private val recommendationAlgorithm: RecommendationAlgorithm
+) : NeighborSearch {
+    override suspend fun findSimilarUsers(targetUserIndex: Int, ratingMatrix: RatingMatrix, topN: Int): List<Pair<Int, Double>> {
+        return recommendationAlgorithm.findSimilarUsers(targetUserIndex, ratingMatrix, topN)
+    }
+}
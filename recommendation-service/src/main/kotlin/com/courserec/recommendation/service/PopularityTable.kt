@@ -0,0 +1,88 @@
+package com.courserec.recommendation.service
+
+import com.courserec.recommendation.matrix.RatingChangeListener
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.SparseVector
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListSet
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Per-course (sum, count) rating aggregates with a pre-sorted popularity ranking.
+ *
+ * Fed by [RatingMatrix] change events: a new rating adds to the sum and count, an
+ * updated rating only adds the difference to the sum. Each change re-positions one
+ * course in the ranking in O(log n), so serving cold-start users is a short walk
+ * over the head of the ranking.
+ */
+class PopularityTable : RatingChangeListener {
+    private val stats = ConcurrentHashMap<Int, CourseStats>()
+    private val ranking = ConcurrentSkipListSet(RANKING_ORDER)
+    private val popularRanking = ConcurrentSkipListSet(RANKING_ORDER)
+    private val popularCourses = AtomicInteger()
+
+    override fun onRatingChanged(userIndex: Int, courseIndex: Int, previousValue: Int, ratingValue: Int) {
+        synchronized(this) {
+            val current = stats[courseIndex]
+            val sum = (current?.sum ?: 0L) + ratingValue - previousValue
+            val count = (current?.count ?: 0) + if (previousValue == RatingMatrix.NO_RATING) 1 else 0
+            val updated = CourseStats(
+                courseIndex,
+                sum,
+                count,
+                RecommendationAlgorithm.popularityScore(sum.toDouble() / count, count)
+            )
+
+            if (current != null) {
+                ranking.remove(current)
+                if (current.count >= MIN_POPULAR_RATINGS) {
+                    popularRanking.remove(current)
+                    popularCourses.decrementAndGet()
+                }
+            }
+            stats[courseIndex] = updated
+            ranking.add(updated)
+            if (updated.count >= MIN_POPULAR_RATINGS) {
+                popularRanking.add(updated)
+                popularCourses.incrementAndGet()
+            }
+        }
+    }
+
+    /**
+     * Return the [limit] most popular courses the user has not rated, best first.
+     * Courses need at least 5 ratings; if no unrated course has 5+ ratings, the threshold drops to 1.
+     */
+    fun topCourses(excludeCourses: SparseVector, limit: Int): List<Pair<Int, Double>> {
+        val excludedPopular = excludeCourses.indices.count { (stats[it]?.count ?: 0) >= MIN_POPULAR_RATINGS }
+        val source = if (popularCourses.get() > excludedPopular) popularRanking else ranking
+
+        val topCourses = ArrayList<Pair<Int, Double>>(limit)
+        for (entry in source) {
+            if (topCourses.size == limit) {
+                break
+            }
+            if (entry.courseIndex in excludeCourses) {
+                continue
+            }
+            topCourses.add(Pair(entry.courseIndex, entry.score))
+        }
+        return topCourses
+    }
+
+    private class CourseStats(
+        val courseIndex: Int,
+        val sum: Long,
+        val count: Int,
+        val score: Double
+    )
+
+    companion object {
+        private const val MIN_POPULAR_RATINGS = 5
+
+        private val RANKING_ORDER = Comparator<CourseStats> { a, b ->
+            val byScore = b.score.compareTo(a.score)
+            if (byScore != 0) byScore else a.courseIndex.compareTo(b.courseIndex)
+        }
+    }
+}
@@ -1,152 +1,331 @@
 package com.courserec.recommendation.service
 
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.SparseVector
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.withContext
 import java.math.BigDecimal
 import java.math.RoundingMode
+import java.util.BitSet
 import java.util.UUID
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveTask
 import kotlin.math.sqrt
 
-class RecommendationAlgorithm {
+class RecommendationAlgorithm(
+    private val similarityPool: ForkJoinPool = ForkJoinPool.commonPool(),
+    private val parallelThreshold: Int = DEFAULT_PARALLEL_THRESHOLD
+) {
+    private val courseScoreAccumulators = ThreadLocal.withInitial { CourseScoreAccumulator() }
+
+    // Large scans run on the pool's own threads, so the caller's dispatcher thread is free meanwhile
+    private val similarityDispatcher = similarityPool.asCoroutineDispatcher()
+
     /**
-     * Calculate cosine similarity between two users based on their rating vectors
+     * Calculate cosine similarity between two encoded rating rows.
+     * Both rows are sorted by course id, so the common courses are found by a single merge pass.
      */
     fun calculateCosineSimilarity(
-        user1Ratings: Map<UUID, Int>,
-        user2Ratings: Map<UUID, Int>
+        user1Ratings: SparseVector,
+        user2Ratings: SparseVector
     ): Double {
-        val commonCourses = user1Ratings.keys.intersect(user2Ratings.keys)
-        if (commonCourses.isEmpty()) {
-            return 0.0
-        }
+        val courses1 = user1Ratings.indices
+        val courses2 = user2Ratings.indices
+        val values1 = user1Ratings.values
+        val values2 = user2Ratings.values
 
-        var dotProduct = 0.0
-        var norm1 = 0.0
-        var norm2 = 0.0
+        var i = 0
+        var j = 0
+        var dotProduct = 0L
+        var norm1 = 0L
+        var norm2 = 0L
 
-        for (courseId in commonCourses) {
-            val rating1 = user1Ratings[courseId]!!.toDouble()
-            val rating2 = user2Ratings[courseId]!!.toDouble()
-            dotProduct += rating1 * rating2
-            norm1 += rating1 * rating1
-            norm2 += rating2 * rating2
+        while (i < courses1.size && j < courses2.size) {
+            val course1 = courses1[i]
+            val course2 = courses2[j]
+            if (course1 < course2) {
+                i++
+            } else if (course1 > course2) {
+                j++
+            } else {
+                val rating1 = values1[i].toLong()
+                val rating2 = values2[j].toLong()
+                dotProduct += rating1 * rating2
+                norm1 += rating1 * rating1
+                norm2 += rating2 * rating2
+                i++
+                j++
+            }
         }
 
-        val denominator = sqrt(norm1) * sqrt(norm2)
+        if (dotProduct == 0L) {
+            return 0.0
+        }
+        val denominator = sqrt(norm1.toDouble()) * sqrt(norm2.toDouble())
         return if (denominator == 0.0) 0.0 else dotProduct / denominator
     }
 
     /**
-     * Find top N similar users to the target user
+     * Find top N similar users to the target user in the rating matrix.
+     * Only users with at least [minUserRatings] ratings are considered as neighbors.
+     * Large candidate sets are split across the similarity pool; every worker keeps
+     * its own bounded top-N heap and the heaps are merged when the workers join.
+     * The caller suspends instead of blocking its thread until the pool is done.
      */
-    fun findSimilarUsers(
-        targetUserId: UUID,
-        targetUserRatings: Map<UUID, Int>,
-        allUserRatings: Map<UUID, Map<UUID, Int>>,
-        topN: Int = 5
-    ): List<Pair<UUID, Double>> {
-        val similarities = mutableListOf<Pair<UUID, Double>>()
-
-        for ((userId, ratings) in allUserRatings) {
-            if (userId == targetUserId) continue
-
-            val similarity = calculateCosineSimilarity(targetUserRatings, ratings)
-            if (similarity > 0) {
-                similarities.add(Pair(userId, similarity))
-            }
+    suspend fun findSimilarUsers(
+        targetUserIndex: Int,
+        ratingMatrix: RatingMatrix,
+        topN: Int = DEFAULT_NEIGHBOR_COUNT,
+        minUserRatings: Int = 3
+    ): List<Pair<Int, Double>> {
+        val targetRatings = ratingMatrix.row(targetUserIndex)
+        val candidates = findCandidateUsers(targetRatings, ratingMatrix).stream().toArray()
+        val scan = SimilarityScanTask(
+            targetUserIndex,
+            targetRatings,
+            ratingMatrix,
+            candidates,
+            0,
+            candidates.size,
+            topN,
+            minUserRatings
+        )
+
+        val topUsers = if (candidates.size <= parallelThreshold) {
+            scan.compute()
+        } else {
+            // Invoked from a pool thread, the task forks its halves into the same pool
+            withContext(similarityDispatcher) { scan.invoke() }
         }
+        return topUsers.toSortedList()
+    }
 
-        return similarities.sortedByDescending { it.second }.take(topN)
+    /**
+     * Collect every user who rated at least one of the target's courses.
+     * Users without a common course always score 0.0, so they are never visited.
+     */
+    fun findCandidateUsers(targetRatings: SparseVector, ratingMatrix: RatingMatrix): BitSet {
+        val candidates = BitSet(ratingMatrix.userCount)
+        for (courseIndex in targetRatings.indices) {
+            for (userIndex in ratingMatrix.column(courseIndex).indices) {
+                candidates.set(userIndex)
+            }
+        }
+        return candidates
     }
 
     /**
-     * Generate recommendations using collaborative filtering
+     * Generate recommendations using collaborative filtering over the rating matrix.
+     * The neighbors come from a [NeighborSearch]; this part never suspends, so the per-thread
+     * score accumulator stays with the thread that started it.
      */
     fun generateCollaborativeFilteringRecommendations(
-        targetUserId: UUID,
-        targetUserRatings: Map<UUID, Int>,
-        allUserRatings: Map<UUID, Map<UUID, Int>>,
-        allCourseIds: Set<UUID>,
-        limit: Int = 10
+        targetUserIndex: Int,
+        ratingMatrix: RatingMatrix,
+        limit: Int = 10,
+        similarUsers: List<Pair<Int, Double>>
     ): List<Pair<UUID, BigDecimal>> {
-        // Find similar users
-        val similarUsers = findSimilarUsers(targetUserId, targetUserRatings, allUserRatings)
-
         if (similarUsers.isEmpty()) {
             return emptyList()
         }
 
-        // Calculate weighted scores for courses
-        val courseScores = mutableMapOf<UUID, Pair<Double, Double>>() // (weightedSum, totalWeight)
+        val targetRatings = ratingMatrix.row(targetUserIndex)
+        val courseScores = courseScoreAccumulators.get()
 
-        for ((similarUserId, similarity) in similarUsers) {
-            val similarUserRatings = allUserRatings[similarUserId] ?: continue
+        for ((similarUserIndex, similarity) in similarUsers) {
+            val similarUserRatings = ratingMatrix.row(similarUserIndex)
 
-            for ((courseId, rating) in similarUserRatings) {
+            for (k in 0 until similarUserRatings.size) {
+                val courseIndex = similarUserRatings.indices[k]
                 // Skip courses the target user has already rated
-                if (targetUserRatings.containsKey(courseId)) {
+                if (courseIndex in targetRatings) {
                     continue
                 }
 
-                val current = courseScores.getOrDefault(courseId, Pair(0.0, 0.0))
-                val weightedRating = rating * similarity
-                courseScores[courseId] = Pair(
-                    current.first + weightedRating,
-                    current.second + similarity
-                )
+                courseScores.add(courseIndex, similarUserRatings.values[k] * similarity, similarity)
             }
         }
 
-        // Calculate final relevance scores
-        val recommendations = courseScores.mapNotNull { (courseId, scores) ->
-            if (scores.second > 0) {
-                val relevanceScore = scores.first / scores.second
-                Pair(courseId, BigDecimal(relevanceScore).setScale(4, RoundingMode.HALF_UP))
-            } else {
-                null
+        val topCourses = TopKHeap(limit)
+        courseScores.drain(topCourses)
+
+        return toRecommendations(topCourses) { ratingMatrix.courses.uuidAt(it) }
+    }
+
+    /**
+     * Generate recommendations from the precomputed item-item model.
+     * Every course the user rated contributes its neighbor list; a candidate's score is the
+     * similarity-weighted average of the user's ratings of the courses it neighbors.
+     */
+    fun generateItemBasedRecommendations(
+        targetUserIndex: Int,
+        ratingMatrix: RatingMatrix,
+        itemModel: ItemSimilarityModel,
+        limit: Int = 10
+    ): List<Pair<UUID, BigDecimal>> {
+        val targetRatings = ratingMatrix.row(targetUserIndex)
+        val courseScores = courseScoreAccumulators.get()
+
+        for (k in 0 until targetRatings.size) {
+            val rating = targetRatings.values[k]
+            val neighbors = itemModel.neighborsOf(targetRatings.indices[k])
+
+            for (n in 0 until neighbors.size) {
+                val courseIndex = neighbors.indices[n]
+                // Skip courses the target user has already rated
+                if (courseIndex in targetRatings) {
+                    continue
+                }
+
+                val similarity = neighbors.similarities[n]
+                courseScores.add(courseIndex, rating * similarity, similarity)
             }
-        }.sortedByDescending { it.second }.take(limit)
+        }
+
+        val topCourses = TopKHeap(limit)
+        courseScores.drain(topCourses)
 
-        return recommendations
+        return toRecommendations(topCourses) { ratingMatrix.courses.uuidAt(it) }
     }
 
     /**
-     * Generate popularity-based recommendations (fallback for new users)
+     * Generate recommendations from the latent factor model.
+     * Courses are ranked by predicted rating; the reported score is clamped to the rating scale.
+     */
+    fun generateFactorizationRecommendations(
+        targetUserIndex: Int,
+        ratingMatrix: RatingMatrix,
+        factorizationModel: MatrixFactorizationModel,
+        limit: Int = 10
+    ): List<Pair<UUID, BigDecimal>> {
+        return factorizationModel.recommend(ratingMatrix.row(targetUserIndex), limit).map { (courseIndex, prediction) ->
+            val score = prediction.coerceIn(MIN_RATING, MAX_RATING)
+            Pair(ratingMatrix.courses.uuidAt(courseIndex), BigDecimal(score).setScale(4, RoundingMode.HALF_UP))
+        }
+    }
+
+    /**
+     * Generate popularity-based recommendations from the precomputed popularity table
      */
     fun generatePopularityBasedRecommendations(
-        allRatings: List<com.courserec.recommendation.client.RatingResponse>,
-        excludeCourseIds: Set<UUID>,
+        popularityTable: PopularityTable,
+        ratingMatrix: RatingMatrix,
+        excludeCourses: SparseVector,
         limit: Int = 10
     ): List<Pair<UUID, BigDecimal>> {
-        // Calculate average rating and count for each course
-        val courseStats = mutableMapOf<UUID, Pair<Double, Int>>() // (sum, count)
+        return popularityTable.topCourses(excludeCourses, limit).map { (courseIndex, score) ->
+            Pair(ratingMatrix.courses.uuidAt(courseIndex), BigDecimal(score).setScale(4, RoundingMode.HALF_UP))
+        }
+    }
+
+    /**
+     * Round the scores of the selected courses, best first.
+     * BigDecimal is only built for the few courses that are actually returned.
+     */
+    private fun toRecommendations(
+        topCourses: TopKHeap,
+        courseIdOf: (Int) -> UUID
+    ): List<Pair<UUID, BigDecimal>> {
+        return topCourses.toSortedList().map { (index, score) ->
+            Pair(courseIdOf(index), BigDecimal(score).setScale(4, RoundingMode.HALF_UP))
+        }
+    }
+
+    /**
+     * Dense per-course (weightedSum, totalWeight) sums, reused across calls on the same thread.
+     * Only the touched courses are visited and cleared, so a call costs its candidates, not the catalog.
+     */
+    private class CourseScoreAccumulator {
+        private var weightedSums = DoubleArray(1024)
+        private var totalWeights = DoubleArray(1024)
+        private var touched = IntArray(64)
+        private var touchedCount = 0
+
+        fun add(courseIndex: Int, weightedRating: Double, weight: Double) {
+            if (courseIndex >= weightedSums.size) {
+                val capacity = maxOf(courseIndex + 1, weightedSums.size * 2)
+                weightedSums = weightedSums.copyOf(capacity)
+                totalWeights = totalWeights.copyOf(capacity)
+            }
+            if (totalWeights[courseIndex] == 0.0) {
+                if (touchedCount == touched.size) {
+                    touched = touched.copyOf(touchedCount * 2)
+                }
+                touched[touchedCount++] = courseIndex
+            }
+            weightedSums[courseIndex] += weightedRating
+            totalWeights[courseIndex] += weight
+        }
+
+        /**
+         * Offer every touched course's weighted average to [topCourses] and reset
+         */
+        fun drain(topCourses: TopKHeap) {
+            for (i in 0 until touchedCount) {
+                val courseIndex = touched[i]
+                if (totalWeights[courseIndex] > 0) {
+                    topCourses.offer(courseIndex, weightedSums[courseIndex] / totalWeights[courseIndex])
+                }
+                weightedSums[courseIndex] = 0.0
+                totalWeights[courseIndex] = 0.0
+            }
+            touchedCount = 0
+        }
+    }
 
-        for (rating in allRatings) {
-            val courseId = rating.getCourseIdAsUUID()
-            if (excludeCourseIds.contains(courseId)) {
-                continue
+    private inner class SimilarityScanTask(
+        private val targetUserIndex: Int,
+        private val targetRatings: SparseVector,
+        private val ratingMatrix: RatingMatrix,
+        private val candidates: IntArray,
+        private val from: Int,
+        private val to: Int,
+        private val topN: Int,
+        private val minUserRatings: Int
+    ) : RecursiveTask<TopKHeap>() {
+        public override fun compute(): TopKHeap {
+            if (to - from <= parallelThreshold) {
+                return scan()
             }
 
-            val current = courseStats.getOrDefault(courseId, Pair(0.0, 0))
-            courseStats[courseId] = Pair(
-                current.first + rating.ratingValue,
-                current.second + 1
-            )
+            val middle = (from + to) ushr 1
+            val left = SimilarityScanTask(targetUserIndex, targetRatings, ratingMatrix, candidates, from, middle, topN, minUserRatings)
+            val right = SimilarityScanTask(targetUserIndex, targetRatings, ratingMatrix, candidates, middle, to, topN, minUserRatings)
+            left.fork()
+            val topUsers = right.compute()
+            topUsers.merge(left.join())
+            return topUsers
         }
 
-        // Filter courses with at least 5 ratings and calculate scores
-        // If no courses have 5+ ratings, lower the threshold to 1
-        val minRatings = if (courseStats.values.any { it.second >= 5 }) 5 else 1
-        
-        val recommendations = courseStats
-            .filter { it.value.second >= minRatings }
-            .map { (courseId, stats) ->
-                val avgRating = stats.first / stats.second
-                val score = avgRating * (1.0 + Math.log10(stats.second.toDouble())) // Boost by log of count
-                Pair(courseId, BigDecimal(score).setScale(4, RoundingMode.HALF_UP))
+        private fun scan(): TopKHeap {
+            val topUsers = TopKHeap(topN)
+            for (i in from until to) {
+                val userIndex = candidates[i]
+                if (userIndex == targetUserIndex) continue
+
+                val ratings = ratingMatrix.row(userIndex)
+                if (ratings.size < minUserRatings) continue
+
+                val similarity = calculateCosineSimilarity(targetRatings, ratings)
+                if (similarity > 0) {
+                    topUsers.offer(userIndex, similarity)
+                }
             }
-            .sortedByDescending { it.second }
-            .take(limit)
+            return topUsers
+        }
+    }
+
+    companion object {
+        const val DEFAULT_PARALLEL_THRESHOLD = 2048
+        const val DEFAULT_NEIGHBOR_COUNT = 5
+        private const val MIN_RATING = 1.0
+        private const val MAX_RATING = 5.0
 
-        return recommendations
+        /**
+         * Average rating boosted by the log of the rating count
+         */
+        fun popularityScore(avgRating: Double, count: Int): Double {
+            return avgRating * (1.0 + Math.log10(count.toDouble()))
+        }
     }
 }
-
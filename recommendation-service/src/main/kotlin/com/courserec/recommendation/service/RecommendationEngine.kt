@@ -0,0 +1,82 @@
+package com.courserec.recommendation.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import java.math.BigDecimal
+import java.util.UUID
+
+/**
+ * Personalized recommendation strategy for users with enough ratings.
+ * Selected with `recommendation.strategy`.
+ */
+interface RecommendationEngine {
+    val name: String
+
+    suspend fun recommend(targetUserIndex: Int, ratingMatrix: RatingMatrix, limit: Int): List<Pair<UUID, BigDecimal>>
+
+    companion object {
+        const val USER_BASED = "user"
+        const val ITEM_BASED = "item"
+        const val MATRIX_FACTORIZATION = "als"
+    }
+}
+
+/**
+ * User-user collaborative filtering, computed at request time with the neighbors found by [neighborSearch]
+ */
+class UserBasedEngine(
+    private val recommendationAlgorithm: RecommendationAlgorithm,
+    private val neighborSearch: NeighborSearch = ExactNeighborSearch(recommendationAlgorithm)
+) : RecommendationEngine {
+    override val name = RecommendationEngine.USER_BASED
+
+    override suspend fun recommend(targetUserIndex: Int, ratingMatrix: RatingMatrix, limit: Int): List<Pair<UUID, BigDecimal>> {
+        val similarUsers = neighborSearch.findSimilarUsers(
+            targetUserIndex,
+            ratingMatrix,
+            RecommendationAlgorithm.DEFAULT_NEIGHBOR_COUNT
+        )
+        return recommendationAlgorithm.generateCollaborativeFilteringRecommendations(targetUserIndex, ratingMatrix, limit, similarUsers)
+    }
+}
+
+/**
+ * Item-item collaborative filtering over the precomputed [ItemSimilarityModel].
+ * Until the model has been built, requests are served by [fallback].
+ */
+class ItemBasedEngine(
+    private val recommendationAlgorithm: RecommendationAlgorithm,
+    private val itemModel: ItemSimilarityModel,
+    private val fallback: RecommendationEngine
+) : RecommendationEngine {
+    override val name = RecommendationEngine.ITEM_BASED
+
+    override suspend fun recommend(targetUserIndex: Int, ratingMatrix: RatingMatrix, limit: Int): List<Pair<UUID, BigDecimal>> {
+        if (!itemModel.isBuilt) {
+            return fallback.recommend(targetUserIndex, ratingMatrix, limit)
+        }
+        return recommendationAlgorithm.generateItemBasedRecommendations(targetUserIndex, ratingMatrix, itemModel, limit)
+    }
+}
+
+/**
+ * Latent factor model trained offline with ALS; serving is a dot product per course.
+ * Until the first training completes, or when none of the user's courses has factors yet,
+ * requests are served by [fallback].
+ */
+class MatrixFactorizationEngine(
+    private val recommendationAlgorithm: RecommendationAlgorithm,
+    private val factorizationModel: MatrixFactorizationModel,
+    private val fallback: RecommendationEngine
+) : RecommendationEngine {
+    override val name = RecommendationEngine.MATRIX_FACTORIZATION
+
+    override suspend fun recommend(targetUserIndex: Int, ratingMatrix: RatingMatrix, limit: Int): List<Pair<UUID, BigDecimal>> {
+        val recommendations = recommendationAlgorithm.generateFactorizationRecommendations(
+            targetUserIndex,
+            ratingMatrix,
+            factorizationModel,
+            limit
+        )
+        return recommendations.ifEmpty { fallback.recommend(targetUserIndex, ratingMatrix, limit) }
+    }
+}
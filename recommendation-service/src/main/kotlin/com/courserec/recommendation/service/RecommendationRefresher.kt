@@ -0,0 +1,86 @@
+package com.courserec.recommendation.service
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import org.slf4j.LoggerFactory
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Eagerly recomputes recommendations for users whose ratings changed.
+ *
+ * Users are queued at most once at a time; a fixed number of workers drain the
+ * bounded queue, running [refresh] for each, normally
+ * [RecommendationService.refreshRecommendations]. When the queue is full, [submit]
+ * blocks the caller (the Kafka poll loop), which stops consumption until the workers
+ * catch up.
+ */
+class RecommendationRefresher(
+    private val refresh: suspend (UUID) -> Unit,
+    private val workers: Int,
+    queueCapacity: Int
+) {
+    private val logger = LoggerFactory.getLogger(RecommendationRefresher::class.java)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val queue = Channel<UUID>(queueCapacity)
+    private val pending = ConcurrentHashMap.newKeySet<UUID>()
+
+    fun start() {
+        repeat(workers) {
+            scope.launch {
+                for (userId in queue) {
+                    // Removed before computing, so a rating that arrives meanwhile queues a fresh run
+                    pending.remove(userId)
+                    try {
+                        refresh(userId)
+                    } catch (e: Exception) {
+                        logger.error("Error refreshing recommendations for userId: {}", userId, e)
+                    }
+                }
+            }
+        }
+        logger.info("Recommendation refresher started with {} workers", workers)
+    }
+
+    /**
+     * Queue the users for recomputation, skipping users that are already waiting
+     */
+    fun submit(userIds: Collection<UUID>) {
+        for (userId in userIds) {
+            if (pending.add(userId) && queue.trySendBlocking(userId).isFailure) {
+                pending.remove(userId)
+            }
+        }
+    }
+
+    /**
+     * Let running refreshes finish and drop the queued ones, which the next request recomputes
+     * anyway. Cancelling the queue also releases a [submit] blocked on a full queue.
+     */
+    fun stop() {
+        queue.cancel()
+        runBlocking {
+            val drained = withTimeoutOrNull(SHUTDOWN_TIMEOUT_MS) {
+                scope.coroutineContext[Job]?.children?.toList()?.joinAll()
+            }
+            if (drained == null) {
+                logger.warn("Recommendation refresher did not drain within {} ms", SHUTDOWN_TIMEOUT_MS)
+            }
+        }
+        scope.cancel()
+        logger.info("Recommendation refresher stopped")
+    }
+
+    companion object {
+        private const val SHUTDOWN_TIMEOUT_MS = 10_000L
+    }
+}
@@ -1,77 +1,186 @@
 package com.courserec.recommendation.service
 
+import com.courserec.recommendation.cache.BoundedCache
+import com.courserec.recommendation.cache.SingleFlight
 import com.courserec.recommendation.client.CourseServiceClient
-import com.courserec.recommendation.client.RatingResponse
-import com.courserec.recommendation.client.RatingServiceClient
-import com.courserec.recommendation.model.Recommendation
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.RatingMatrixLoader
 import com.courserec.recommendation.repository.RecommendationData
-import com.courserec.recommendation.repository.RecommendationRepository
+import com.courserec.recommendation.repository.RecommendationStore
+import com.courserec.recommendation.repository.RecommendationWriteBehind
+import com.courserec.recommendation.repository.StoredRecommendations
+import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
+import io.micrometer.core.instrument.MeterRegistry
 import org.slf4j.LoggerFactory
 import java.math.BigDecimal
+import java.time.Duration
 import java.util.UUID
-import java.util.concurrent.ConcurrentHashMap
 
 class RecommendationService(
-    private val recommendationRepository: RecommendationRepository,
-    private val ratingServiceClient: RatingServiceClient,
+    private val recommendationStore: RecommendationStore,
     private val courseServiceClient: CourseServiceClient,
-    private val recommendationAlgorithm: RecommendationAlgorithm
+    private val recommendationAlgorithm: RecommendationAlgorithm,
+    private val recommendationEngine: RecommendationEngine,
+    private val ratingMatrix: RatingMatrix,
+    private val ratingMatrixLoader: RatingMatrixLoader,
+    private val popularityTable: PopularityTable,
+    private val recommendationWriteBehind: RecommendationWriteBehind,
+    meterRegistry: MeterRegistry? = null,
+    cacheMaximumSize: Long = DEFAULT_CACHE_MAXIMUM_SIZE,
+    private val warmStartEnabled: Boolean = true
 ) {
     private val logger = LoggerFactory.getLogger(RecommendationService::class.java)
-    private val cache = ConcurrentHashMap<UUID, CachedRecommendations>()
     private val cacheTtl = 60 * 60 * 1000L // 1 hour
 
-    suspend fun generateRecommendations(userId: UUID, limit: Int = 10, jwtToken: String? = null): List<Recommendation> {
-        // Check cache first
+    // Entries also carry their computation time, which can predate insertion for persisted sets
+    private val cache = BoundedCache<UUID, CachedRecommendations>(
+        "recommendations",
+        cacheMaximumSize,
+        Duration.ofMillis(cacheTtl),
+        meterRegistry
+    )
+
+    // When each user's ratings last changed; persisted sets older than that are stale. A marker
+    // older than the freshness window rules out nothing the window does not, so it expires with it
+    private val ratingsChangedAt = BoundedCache<UUID, Long>(
+        "ratings-changed-at",
+        cacheMaximumSize,
+        Duration.ofMillis(cacheTtl)
+    )
+
+    // Concurrent misses for the same user share one generation
+    private val generations = SingleFlight<UUID, CachedRecommendations>()
+
+    suspend fun generateRecommendations(userId: UUID, limit: Int = 10, jwtToken: String? = null): List<RecommendationData> {
+        val required = minOf(limit, MAX_RECOMMENDATIONS)
+        while (true) {
+            // Check cache first
+            cachedRecommendations(userId, limit)?.let { return it }
+
+            val generated = generations.execute(userId) {
+                // A generation that completed just before this one may already have filled the cache
+                cache[userId]?.takeIf { !it.isExpired(cacheTtl) && it.limit >= limit }
+                    ?: loadOrComputeRecommendations(userId, limit, jwtToken)
+            }
+            // A joined generation may have served a persisted set shorter than this caller needs
+            if (generated.limit >= required) {
+                return generated.recommendations.take(limit)
+            }
+        }
+    }
+
+    private fun cachedRecommendations(userId: UUID, limit: Int): List<RecommendationData>? {
         val cached = cache[userId]
-        if (cached != null && !cached.isExpired(cacheTtl)) {
+        if (cached != null && !cached.isExpired(cacheTtl) && cached.limit >= limit) {
             logger.debug("Returning cached recommendations for userId: {}", userId)
-            return cached.recommendations
+            return cached.recommendations.take(limit)
+        }
+        return null
+    }
+
+    private suspend fun loadOrComputeRecommendations(userId: UUID, limit: Int, jwtToken: String?): CachedRecommendations {
+        // After a restart the last persisted set is still good if it is fresh enough
+        if (warmStartEnabled) {
+            val stored = loadPersistedRecommendations(userId, limit)
+            if (stored != null) {
+                logger.debug("Returning persisted recommendations for userId: {}", userId)
+                return stored
+            }
+        }
+
+        if (!ratingMatrixLoader.ensureLoaded(jwtToken)) {
+            logger.warn("Rating matrix is not loaded yet, recommendations for userId: {} use event data only", userId)
+        }
+
+        // Computed at the maximum size, so the result serves every caller waiting on this generation
+        return computeRecommendations(userId, MAX_RECOMMENDATIONS)
+    }
+
+    private suspend fun loadPersistedRecommendations(userId: UUID, limit: Int): CachedRecommendations? {
+        val stored = recommendationStore.findRecommendationsGeneratedAfter(userId, freshnessCutoff(userId))
+            ?: return null
+        // A shorter set may have been computed for a smaller limit
+        if (stored.recommendations.size < limit) {
+            return null
+        }
+        return cacheStored(userId, stored)
+    }
+
+    /**
+     * Fill the cache with the persisted sets of the users whose recommendations were generated
+     * most recently, so that they are served without recomputation after a restart
+     */
+    suspend fun preloadCache(maxUsers: Int) {
+        val storedSets = recommendationStore.findLatestRecommendationSets(
+            maxUsers,
+            Instant.fromEpochMilliseconds(System.currentTimeMillis() - cacheTtl)
+        )
+        var loaded = 0
+        for ((userId, stored) in storedSets) {
+            // Skip users whose ratings changed, or who were recomputed, while the query ran
+            if (stored.generatedAt >= freshnessCutoff(userId) && cache[userId] == null) {
+                cacheStored(userId, stored)
+                loaded++
+            }
+        }
+        logger.info("Preloaded cached recommendations for {} users", loaded)
+    }
+
+    private fun freshnessCutoff(userId: UUID): Instant {
+        val oldestFresh = System.currentTimeMillis() - cacheTtl
+        val changedAt = ratingsChangedAt[userId] ?: return Instant.fromEpochMilliseconds(oldestFresh)
+        return Instant.fromEpochMilliseconds(maxOf(oldestFresh, changedAt + 1))
+    }
+
+    private fun cacheStored(userId: UUID, stored: StoredRecommendations): CachedRecommendations {
+        val entry = CachedRecommendations(stored.recommendations, stored.recommendations.size, stored.generatedAt.toEpochMilliseconds())
+        cache.putIfAbsent(userId, entry)
+        return entry
+    }
+
+    /**
+     * Recompute a user's recommendations ahead of the next request, at the maximum list size
+     * so that the cached result can serve any requested limit
+     */
+    suspend fun refreshRecommendations(userId: UUID) {
+        if (!ratingMatrixLoader.isLoaded) {
+            // Without a caller token the matrix cannot be bootstrapped, the next request will do it
+            logger.debug("Skipping eager refresh for userId: {}, rating matrix is not loaded yet", userId)
+            return
         }
+        // Joins a generation already running for the user instead of computing twice
+        generations.execute(userId) { computeRecommendations(userId, MAX_RECOMMENDATIONS) }
+    }
 
+    private suspend fun computeRecommendations(userId: UUID, limit: Int): CachedRecommendations {
         logger.info("Generating recommendations for userId: {}, limit: {}", userId, limit)
+        // Ratings that arrive after this point are not reflected in the result
+        val startedAt = Clock.System.now()
 
         // Get user ratings
-        val userRatings = ratingServiceClient.getUserRatings(userId, jwtToken)
+        val userIndex = ratingMatrix.users.indexOf(userId)
+        val userRatings = ratingMatrix.row(userIndex)
         logger.info("Found {} ratings for userId: {}", userRatings.size, userId)
-        val userRatingMap = userRatings.associate { it.getCourseIdAsUUID() to it.ratingValue }
 
         val recommendations: List<Pair<UUID, BigDecimal>>
 
         // Use collaborative filtering if user has >= 3 ratings, otherwise use popularity-based
         if (userRatings.size >= 3) {
-            logger.debug("Using collaborative filtering for userId: {} ({} ratings)", userId, userRatings.size)
-            
-            // Get all ratings for similarity calculation
-            val allRatings = ratingServiceClient.getAllRatings(jwtToken)
-            logger.info("Found {} total ratings in system", allRatings.size)
-            val allUserRatings = allRatings
-                .groupBy { it.getUserIdAsUUID() }
-                .mapValues { it.value.associate { rating -> rating.getCourseIdAsUUID() to rating.ratingValue } }
-                .filter { it.value.size >= 3 } // Only consider users with at least 3 ratings
-
-            logger.info("Found {} users with >= 3 ratings", allUserRatings.size)
-            val allCourseIds = allRatings.map { it.getCourseIdAsUUID() }.toSet()
-
-            recommendations = recommendationAlgorithm.generateCollaborativeFilteringRecommendations(
-                userId,
-                userRatingMap,
-                allUserRatings,
-                allCourseIds,
-                limit
-            )
+            logger.debug("Using {}-based collaborative filtering for userId: {} ({} ratings)", recommendationEngine.name, userId, userRatings.size)
+            logger.info("Found {} total ratings from {} users in system", ratingMatrix.ratingCount, ratingMatrix.userCount)
+
+            recommendations = recommendationEngine.recommend(userIndex, ratingMatrix, limit)
             logger.info("Generated {} collaborative filtering recommendations", recommendations.size)
         } else {
             logger.debug("Using popularity-based recommendations for userId: {} ({} ratings)", userId, userRatings.size)
-            
-            // Get all ratings for popularity calculation
-            val allRatings = ratingServiceClient.getAllRatings(jwtToken)
-            logger.info("Found {} total ratings in system for popularity calculation", allRatings.size)
-            val excludeCourseIds = userRatingMap.keys.toSet()
+
+            logger.info("Found {} total ratings in system for popularity calculation", ratingMatrix.ratingCount)
 
             recommendations = recommendationAlgorithm.generatePopularityBasedRecommendations(
-                allRatings,
-                excludeCourseIds,
+                popularityTable,
+                ratingMatrix,
+                userRatings,
                 limit
             )
             logger.info("Generated {} popularity-based recommendations", recommendations.size)
@@ -79,7 +188,7 @@ class RecommendationService(
         
         if (recommendations.isEmpty()) {
             logger.warn("No recommendations generated for userId: {}. Possible reasons: no ratings in system, no courses with >= 5 ratings, or insufficient data", userId)
-            return emptyList()
+            return CachedRecommendations(emptyList(), limit, startedAt.toEpochMilliseconds())
         }
 
         // Convert to RecommendationData and save
@@ -87,28 +196,49 @@ class RecommendationService(
             RecommendationData(userId, courseId, score, index + 1)
         }
 
-        recommendationRepository.saveRecommendations(recommendationData)
+        // Persisted in the background, the response does not wait for the database
+        recommendationWriteBehind.submit(userId, StoredRecommendations(recommendationData, startedAt))
 
-        // Fetch recommendations from database
-        val savedRecommendations = recommendationRepository.getRecommendationsByUserId(userId, limit)
+        val entry = CachedRecommendations(recommendationData, limit, startedAt.toEpochMilliseconds())
+        val changedAt = ratingsChangedAt[userId]
+        if (changedAt == null || changedAt < entry.timestamp) {
+            cache[userId] = entry
+            // The new set supersedes older persisted sets, so the change marker is no longer needed
+            changedAt?.let { ratingsChangedAt.remove(userId, it) }
+        } else {
+            // A rating arrived while computing; the result is returned but not cached
+            logger.debug("Ratings of userId: {} changed during generation, not caching the result", userId)
+        }
 
-        // Cache the results
-        cache[userId] = CachedRecommendations(savedRecommendations, System.currentTimeMillis())
+        logger.info("Generated {} recommendations for userId: {}", recommendationData.size, userId)
+        return entry
+    }
 
-        logger.info("Generated {} recommendations for userId: {}", savedRecommendations.size, userId)
-        return savedRecommendations
+    /**
+     * Apply a rating event to the resident matrix and drop the user's stale recommendations
+     */
+    fun onRatingSubmitted(userId: UUID, courseId: UUID, ratingValue: Int) {
+        ratingMatrix.upsert(userId, courseId, ratingValue)
+        ratingsChangedAt[userId] = System.currentTimeMillis()
+        invalidateCache(userId)
     }
 
     fun invalidateCache(userId: UUID) {
-        cache.remove(userId)
+        cache.invalidate(userId)
         logger.debug("Invalidated recommendation cache for userId: {}", userId)
     }
 
     private data class CachedRecommendations(
-        val recommendations: List<Recommendation>,
+        val recommendations: List<RecommendationData>,
+        val limit: Int,
         val timestamp: Long
     ) {
         fun isExpired(ttl: Long): Boolean = System.currentTimeMillis() - timestamp > ttl
     }
+
+    companion object {
+        const val MAX_RECOMMENDATIONS = 50
+        const val DEFAULT_CACHE_MAXIMUM_SIZE = 100_000L
+    }
 }
 
@@ -0,0 +1,104 @@
+package com.courserec.recommendation.service
+
+/**
+ * Fixed-capacity min-heap that keeps the K best (id, score) pairs seen so far.
+ *
+ * The worst kept entry sits at the root, so offering a candidate is O(1) when it
+ * does not qualify and O(log K) otherwise. Ties are broken towards the lower id
+ * to keep results deterministic. Not thread-safe; give each worker its own heap.
+ */
+class TopKHeap(val capacity: Int) {
+    private val ids = IntArray(capacity)
+    private val scores = DoubleArray(capacity)
+
+    var size = 0
+        private set
+
+    fun offer(id: Int, score: Double) {
+        if (capacity == 0) {
+            return
+        }
+        if (size < capacity) {
+            ids[size] = id
+            scores[size] = score
+            siftUp(size)
+            size++
+        } else if (isBetter(id, score, ids[0], scores[0])) {
+            ids[0] = id
+            scores[0] = score
+            siftDown(0)
+        }
+    }
+
+    /**
+     * Offer every entry of another heap to this one
+     */
+    fun merge(other: TopKHeap) {
+        for (i in 0 until other.size) {
+            offer(other.ids[i], other.scores[i])
+        }
+    }
+
+    /**
+     * Return the kept entries ordered from best to worst
+     */
+    fun toSortedList(): List<Pair<Int, Double>> {
+        val entries = ArrayList<Pair<Int, Double>>(size)
+        for (i in 0 until size) {
+            entries.add(Pair(ids[i], scores[i]))
+        }
+        entries.sortWith { a, b ->
+            when {
+                isBetter(a.first, a.second, b.first, b.second) -> -1
+                isBetter(b.first, b.second, a.first, a.second) -> 1
+                else -> 0
+            }
+        }
+        return entries
+    }
+
+    private fun siftUp(start: Int) {
+        var child = start
+        while (child > 0) {
+            val parent = (child - 1) ushr 1
+            if (!isBetter(ids[parent], scores[parent], ids[child], scores[child])) {
+                break
+            }
+            swap(parent, child)
+            child = parent
+        }
+    }
+
+    private fun siftDown(start: Int) {
+        var parent = start
+        while (true) {
+            val left = 2 * parent + 1
+            if (left >= size) {
+                break
+            }
+            val right = left + 1
+            var worst = left
+            if (right < size && isBetter(ids[left], scores[left], ids[right], scores[right])) {
+                worst = right
+            }
+            if (!isBetter(ids[parent], scores[parent], ids[worst], scores[worst])) {
+                break
+            }
+            swap(parent, worst)
+            parent = worst
+        }
+    }
+
+    private fun swap(i: Int, j: Int) {
+        val id = ids[i]
+        ids[i] = ids[j]
+        ids[j] = id
+        val score = scores[i]
+        scores[i] = scores[j]
+        scores[j] = score
+    }
+
+    private fun isBetter(id1: Int, score1: Double, id2: Int, score2: Double): Boolean {
+        return score1 > score2 || (score1 == score2 && id1 < id2)
+    }
+}
@@ -0,0 +1,54 @@
+package com.courserec.recommendation.benchmark
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.service.LshNeighborSearch
+import com.courserec.recommendation.service.RecommendationAlgorithm
+import com.courserec.recommendation.support.communityRatings
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+/**
+ * Neighbor search latency of MinHash LSH against the exact scan. Excluded from `test`,
+ * run with `gradle benchmark`.
+ */
+@Tag("benchmark")
+class LshNeighborSearchBenchmark {
+    private val algorithm = RecommendationAlgorithm()
+
+    @Test
+    fun compareQueryLatency() {
+        val random = Random(17)
+        val matrix = RatingMatrix()
+        val search = LshNeighborSearch(algorithm)
+        matrix.addListener(search)
+        communityRatings(random, communities = 200).forEach { (userId, courseId, value) -> matrix.upsert(userId, courseId, value) }
+        val targets = (0 until matrix.userCount).shuffled(random).take(1000)
+
+        val exactNanos = measure { runBlocking { targets.forEach { algorithm.findSimilarUsers(it, matrix, 10) } } }
+        val lshNanos = measure { runBlocking { targets.forEach { search.findSimilarUsers(it, matrix, 10) } } }
+
+        println(
+            "Neighbor search - users: ${matrix.userCount}, " +
+                "time/query exact: ${exactNanos / targets.size / 1000} us, lsh: ${lshNanos / targets.size / 1000} us"
+        )
+    }
+
+    private fun measure(block: () -> Unit): Long {
+        // Warm-up passes so both searches are measured after JIT compilation
+        repeat(WARMUP_ITERATIONS) { block() }
+        var best = Long.MAX_VALUE
+        repeat(MEASURED_ITERATIONS) {
+            val start = System.nanoTime()
+            block()
+            best = minOf(best, System.nanoTime() - start)
+        }
+        return best
+    }
+
+    companion object {
+        private const val WARMUP_ITERATIONS = 3
+        private const val MEASURED_ITERATIONS = 5
+    }
+}
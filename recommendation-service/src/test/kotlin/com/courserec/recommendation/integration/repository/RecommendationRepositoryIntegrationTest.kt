@@ -0,0 +1,119 @@
+package com.courserec.recommendation.integration.repository
+
+import com.courserec.recommendation.database.RecommendationHeadTable
+import com.courserec.recommendation.database.RecommendationTable
+import com.courserec.recommendation.repository.RecommendationData
+import com.courserec.recommendation.repository.RecommendationRepository
+import com.courserec.recommendation.repository.StoredRecommendations
+import com.courserec.recommendation.support.connectH2Database
+import kotlinx.coroutines.runBlocking
+import kotlinx.datetime.Instant
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.eq
+import org.jetbrains.exposed.sql.batchInsert
+import org.jetbrains.exposed.sql.deleteWhere
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.transactions.transaction
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+import java.util.UUID
+import kotlin.test.assertEquals
+
+class RecommendationRepositoryIntegrationTest {
+    private val repository = RecommendationRepository()
+
+    @BeforeEach
+    fun setUp() {
+        connectH2Database()
+    }
+
+    @Test
+    fun testNewerSetReplacesCurrentGeneration() = runBlocking {
+        val userId = UUID.randomUUID()
+        val older = recommendations(userId, Instant.fromEpochMilliseconds(1_000))
+        val newer = recommendations(userId, Instant.fromEpochMilliseconds(2_000))
+
+        repository.saveRecommendationSets(mapOf(userId to newer))
+        repository.saveRecommendationSets(mapOf(userId to older))
+
+        assertEquals(newer, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+        assertEquals(3, repository.deleteSupersededGenerations(adoptUnversioned = false))
+        assertEquals(newer.recommendations, repository.getRecommendationsByUserId(userId, 10))
+    }
+
+    @Test
+    fun testOldWriterDeletingCurrentGenerationFallsBackToLatestRows() = runBlocking {
+        val userId = UUID.randomUUID()
+        val current = recommendations(userId, Instant.fromEpochMilliseconds(2_000))
+        // Computed before the current set, so adopting by timestamp alone would not move the head
+        val unversioned = recommendations(userId, Instant.fromEpochMilliseconds(1_000))
+
+        repository.saveRecommendationSets(mapOf(userId to current))
+        writeUnversioned(unversioned)
+
+        assertEquals(unversioned.recommendations, repository.getRecommendationsByUserId(userId, 10))
+        assertEquals(unversioned, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+
+        assertEquals(0, repository.deleteSupersededGenerations(adoptUnversioned = true))
+        assertEquals(0L, headGenerationOf(userId))
+        assertEquals(unversioned, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+    }
+
+    @Test
+    fun testGenerationWrittenAfterOldWriterBecomesCurrent() = runBlocking {
+        val userId = UUID.randomUUID()
+        val unversioned = recommendations(userId, Instant.fromEpochMilliseconds(1_000))
+        val current = recommendations(userId, Instant.fromEpochMilliseconds(2_000))
+
+        writeUnversioned(unversioned)
+        repository.saveRecommendationSets(mapOf(userId to current))
+
+        assertEquals(3, repository.deleteSupersededGenerations(adoptUnversioned = true))
+        assertEquals(current, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+    }
+
+    @Test
+    fun testNewerUnversionedSetIsAdopted() = runBlocking {
+        val userId = UUID.randomUUID()
+        val current = recommendations(userId, Instant.fromEpochMilliseconds(1_000))
+        val unversioned = recommendations(userId, Instant.fromEpochMilliseconds(2_000))
+
+        repository.saveRecommendationSets(mapOf(userId to current))
+        transaction {
+            // An old writer racing the delete leaves both sets in place
+            insertUnversioned(unversioned)
+        }
+
+        assertEquals(3, repository.deleteSupersededGenerations(adoptUnversioned = true))
+        assertEquals(0L, headGenerationOf(userId))
+        assertEquals(unversioned, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+    }
+
+    // The delete-then-insert writer of versions that predate generations
+    private fun writeUnversioned(stored: StoredRecommendations) = transaction {
+        val userId = stored.recommendations.first().userId
+        RecommendationTable.deleteWhere { RecommendationTable.userId eq userId }
+        insertUnversioned(stored)
+    }
+
+    private fun insertUnversioned(stored: StoredRecommendations) {
+        RecommendationTable.batchInsert(stored.recommendations, shouldReturnGeneratedValues = false) { data ->
+            this[RecommendationTable.userId] = data.userId
+            this[RecommendationTable.courseId] = data.courseId
+            this[RecommendationTable.relevanceScore] = data.relevanceScore
+            this[RecommendationTable.generatedAt] = stored.generatedAt
+            this[RecommendationTable.rank] = data.rank
+        }
+    }
+
+    private fun recommendations(userId: UUID, generatedAt: Instant): StoredRecommendations {
+        val recommendations = List(3) { RecommendationData(userId, UUID.randomUUID(), BigDecimal("4.0000"), it + 1) }
+        return StoredRecommendations(recommendations, generatedAt)
+    }
+
+    private fun headGenerationOf(userId: UUID): Long = transaction {
+        RecommendationHeadTable
+            .select { RecommendationHeadTable.userId eq userId }
+            .single()[RecommendationHeadTable.generation]
+    }
+}
@@ -0,0 +1,65 @@
+package com.courserec.recommendation.integration.repository
+
+import com.courserec.recommendation.database.RecommendationSnapshotTable
+import com.courserec.recommendation.repository.RecommendationData
+import com.courserec.recommendation.repository.RecommendationSnapshotRepository
+import com.courserec.recommendation.repository.StoredRecommendations
+import com.courserec.recommendation.support.connectH2Database
+import kotlinx.coroutines.runBlocking
+import kotlinx.datetime.Instant
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.transactions.transaction
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+import java.util.UUID
+import kotlin.test.assertEquals
+
+class RecommendationSnapshotRepositoryIntegrationTest {
+    private val repository = RecommendationSnapshotRepository()
+
+    @BeforeEach
+    fun setUp() {
+        connectH2Database()
+    }
+
+    @Test
+    fun testOlderSetDoesNotReplaceNewerSnapshot() = runBlocking {
+        val userId = UUID.randomUUID()
+        val newer = recommendations(userId, Instant.fromEpochMilliseconds(2_000))
+        val older = recommendations(userId, Instant.fromEpochMilliseconds(1_000))
+
+        repository.saveRecommendationSets(mapOf(userId to newer))
+        repository.saveRecommendationSets(mapOf(userId to older))
+
+        assertEquals(newer, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+        assertEquals(1L, generationOf(userId))
+    }
+
+    @Test
+    fun testNewerSetReplacesSnapshotAndBumpsGeneration() = runBlocking {
+        val userId = UUID.randomUUID()
+        val older = recommendations(userId, Instant.fromEpochMilliseconds(1_000))
+        val newer = recommendations(userId, Instant.fromEpochMilliseconds(2_000))
+
+        repository.saveRecommendationSets(mapOf(userId to older))
+        repository.saveRecommendationSets(mapOf(userId to newer))
+
+        assertEquals(newer, repository.findRecommendationsGeneratedAfter(userId, Instant.fromEpochMilliseconds(0)))
+        assertEquals(2L, generationOf(userId))
+    }
+
+    private fun recommendations(userId: UUID, generatedAt: Instant): StoredRecommendations {
+        // H2 passes the MERGE source row through VARCHAR, so every payload byte is kept below 0x80
+        val recommendations = List(3) {
+            RecommendationData(userId, UUID(0L, generatedAt.epochSeconds * 10 + it), BigDecimal("3.2000"), it + 1)
+        }
+        return StoredRecommendations(recommendations, generatedAt)
+    }
+
+    private fun generationOf(userId: UUID): Long = transaction {
+        RecommendationSnapshotTable
+            .select { RecommendationSnapshotTable.userId eq userId }
+            .single()[RecommendationSnapshotTable.generation]
+    }
+}
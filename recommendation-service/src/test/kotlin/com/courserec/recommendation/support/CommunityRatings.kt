@@ -0,0 +1,22 @@
+package com.courserec.recommendation.support
+
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Synthetic ratings where users belong to communities that share a pool of courses,
+ * plus one random course each, as (userId, courseId, ratingValue)
+ */
+fun communityRatings(random: Random, communities: Int = 40, usersPerCommunity: Int = 100): List<Triple<UUID, UUID, Int>> {
+    val courses = List(communities * 12 + 200) { UUID.randomUUID() }
+    val ratings = ArrayList<Triple<UUID, UUID, Int>>()
+    repeat(communities) { community ->
+        val pool = courses.subList(community * 12, community * 12 + 12)
+        repeat(usersPerCommunity) {
+            val userId = UUID.randomUUID()
+            pool.shuffled(random).take(8).forEach { ratings.add(Triple(userId, it, random.nextInt(1, 6))) }
+            ratings.add(Triple(userId, courses.random(random), random.nextInt(1, 6)))
+        }
+    }
+    return ratings
+}
@@ -0,0 +1,47 @@
+package com.courserec.recommendation.support
+
+import com.courserec.recommendation.repository.RecommendationData
+import com.courserec.recommendation.repository.RecommendationStore
+import com.courserec.recommendation.repository.StoredRecommendations
+import kotlinx.datetime.Instant
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * In-memory [RecommendationStore] that records its calls and can be made to fail writes
+ */
+class FakeRecommendationStore : RecommendationStore {
+    val sets = ConcurrentHashMap<UUID, StoredRecommendations>()
+
+    // Every batch that was written, failed attempts excluded
+    val batches = CopyOnWriteArrayList<Map<UUID, StoredRecommendations>>()
+
+    // The generatedAfter bound of every single-user lookup
+    val lookups = CopyOnWriteArrayList<Instant>()
+
+    // Number of upcoming writes that throw
+    val failuresLeft = AtomicInteger()
+
+    override suspend fun saveRecommendationSets(recommendationsByUser: Map<UUID, StoredRecommendations>) {
+        if (failuresLeft.getAndDecrement() > 0) {
+            throw IllegalStateException("Database unavailable")
+        }
+        batches.add(recommendationsByUser.toMap())
+        sets.putAll(recommendationsByUser)
+    }
+
+    override suspend fun findRecommendationsGeneratedAfter(userId: UUID, generatedAfter: Instant): StoredRecommendations? {
+        lookups.add(generatedAfter)
+        return sets[userId]?.takeIf { it.generatedAt >= generatedAfter }
+    }
+
+    override suspend fun findLatestRecommendationSets(maxUsers: Int, generatedAfter: Instant): Map<UUID, StoredRecommendations> {
+        return sets.filterValues { it.generatedAt >= generatedAfter }
+    }
+
+    override suspend fun getRecommendationsByUserId(userId: UUID, limit: Int): List<RecommendationData> {
+        return sets[userId]?.recommendations.orEmpty().take(limit)
+    }
+}
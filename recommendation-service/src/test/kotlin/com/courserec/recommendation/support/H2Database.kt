@@ -0,0 +1,18 @@
+package com.courserec.recommendation.support
+
+import com.courserec.recommendation.database.initializeDatabase
+import org.jetbrains.exposed.sql.Database
+import org.jetbrains.exposed.sql.transactions.TransactionManager
+import java.util.UUID
+
+/**
+ * Connect a fresh in-memory H2 database in PostgreSQL mode and create the schema, so repository
+ * SQL runs without Docker. It becomes the default database for transactions.
+ */
+fun connectH2Database(): Database {
+    val url = "jdbc:h2:mem:${UUID.randomUUID()};MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1"
+    return Database.connect(url, "org.h2.Driver").also {
+        TransactionManager.defaultDatabase = it
+        initializeDatabase()
+    }
+}
@@ -0,0 +1,53 @@
+package com.courserec.recommendation.support
+
+import com.courserec.recommendation.client.CourseServiceClient
+import com.courserec.recommendation.client.RatingServiceClient
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.RatingMatrixLoader
+import com.courserec.recommendation.repository.RecommendationStore
+import com.courserec.recommendation.repository.RecommendationWriteBehind
+import com.courserec.recommendation.service.PopularityTable
+import com.courserec.recommendation.service.RecommendationAlgorithm
+import com.courserec.recommendation.service.RecommendationService
+import com.courserec.recommendation.service.UserBasedEngine
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.mock.MockEngine
+import io.ktor.client.engine.mock.respond
+import io.ktor.client.plugins.contentnegotiation.ContentNegotiation
+import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.headersOf
+import io.ktor.serialization.kotlinx.json.json
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+
+/**
+ * A user-based [RecommendationService] over [ratingMatrix] whose rating-service has no ratings,
+ * so the matrix holds only what the test puts in it
+ */
+fun recommendationService(
+    ratingMatrix: RatingMatrix = RatingMatrix(),
+    recommendationStore: RecommendationStore = FakeRecommendationStore()
+): RecommendationService {
+    val httpClient = HttpClient(MockEngine) {
+        engine {
+            addHandler {
+                respond(
+                    """{"content":[],"hasNext":false}""",
+                    headers = headersOf(HttpHeaders.ContentType, ContentType.Application.Json.toString())
+                )
+            }
+        }
+        install(ContentNegotiation) { json() }
+    }
+    val recommendationAlgorithm = RecommendationAlgorithm()
+    return RecommendationService(
+        recommendationStore,
+        CourseServiceClient(httpClient, ""),
+        recommendationAlgorithm,
+        UserBasedEngine(recommendationAlgorithm),
+        ratingMatrix,
+        RatingMatrixLoader(ratingMatrix, RatingServiceClient(httpClient, "")),
+        PopularityTable(),
+        RecommendationWriteBehind(recommendationStore, SimpleMeterRegistry())
+    )
+}
@@ -0,0 +1,50 @@
+package com.courserec.recommendation.unit.cache
+
+import com.courserec.recommendation.cache.BoundedCache
+import com.github.benmanes.caffeine.cache.Ticker
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class BoundedCacheTest {
+    @Test
+    fun testExpiresEntriesAfterWrite() {
+        val now = AtomicLong()
+        val cache = BoundedCache<Int, String>("test", 100, Duration.ofMinutes(5), ticker = Ticker { now.get() })
+
+        cache[1] = "one"
+        now.addAndGet(Duration.ofMinutes(4).toNanos())
+        assertEquals("one", cache[1])
+
+        now.addAndGet(Duration.ofMinutes(2).toNanos())
+        assertNull(cache[1])
+    }
+
+    @Test
+    fun testStaysWithinMaximumSize() {
+        val cache = BoundedCache<Int, Int>("test", 100, Duration.ofMinutes(5))
+
+        repeat(1000) { cache[it] = it }
+        cache.cleanUp()
+
+        assertTrue(cache.estimatedSize <= 100)
+        assertTrue(cache.stats().evictionCount() >= 900)
+    }
+
+    @Test
+    fun testPublishesHitAndMissCounts() {
+        val registry = SimpleMeterRegistry()
+        val cache = BoundedCache<Int, String>("test", 100, Duration.ofMinutes(5), registry)
+
+        cache[1] = "one"
+        cache[1]
+        cache[2]
+
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "test").tag("result", "hit").functionCounter().count())
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "test").tag("result", "miss").functionCounter().count())
+    }
+}
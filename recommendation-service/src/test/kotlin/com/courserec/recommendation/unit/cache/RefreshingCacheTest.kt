@@ -0,0 +1,92 @@
+package com.courserec.recommendation.unit.cache
+
+import com.courserec.recommendation.cache.RefreshingCache
+import com.github.benmanes.caffeine.cache.Ticker
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.test.assertEquals
+
+class RefreshingCacheTest {
+    private val now = AtomicLong()
+    private val cache = RefreshingCache<String, Int>(
+        "test",
+        100,
+        refreshAfterWrite = Duration.ofMinutes(1),
+        expireAfterWrite = Duration.ofMinutes(5),
+        ticker = Ticker { now.get() }
+    )
+
+    @Test
+    fun testServesStaleValueWhileRefreshing() = runBlocking {
+        val loads = AtomicInteger()
+        val loader: suspend () -> Int = { loads.incrementAndGet() }
+
+        assertEquals(1, cache.get("course", loader))
+        now.addAndGet(Duration.ofMinutes(2).toNanos())
+
+        // The stale value is returned at once and replaced by the background reload
+        assertEquals(1, cache.get("course", loader))
+        withTimeout(5_000) {
+            while (cache.get("course", loader) != 2) {
+                delay(10)
+            }
+        }
+        assertEquals(2, loads.get())
+    }
+
+    @Test
+    fun testKeepsStaleValueWhenRefreshFails() = runBlocking {
+        assertEquals(1, cache.get("course") { 1 })
+        now.addAndGet(Duration.ofMinutes(2).toNanos())
+
+        val failingLoader: suspend () -> Int = { throw IllegalStateException("course-service unavailable") }
+        assertEquals(1, cache.get("course", failingLoader))
+        delay(100)
+        assertEquals(1, cache.get("course", failingLoader))
+
+        now.addAndGet(Duration.ofMinutes(4).toNanos())
+        assertEquals(4, cache.get("course") { 4 })
+    }
+
+    @Test
+    fun testStopCancelsBackgroundRefreshes() = runBlocking {
+        val loads = AtomicInteger()
+        val loader: suspend () -> Int = { loads.incrementAndGet() }
+        assertEquals(1, cache.get("course", loader))
+        now.addAndGet(Duration.ofMinutes(2).toNanos())
+
+        cache.stop()
+
+        // The stale value is still served, but no reload runs any more
+        assertEquals(1, cache.get("course", loader))
+        delay(100)
+        assertEquals(1, cache.get("course", loader))
+        assertEquals(1, loads.get())
+    }
+
+    @Test
+    fun testBatchLookupReturnsPresentEntriesAndRefreshesStaleOnes() = runBlocking {
+        cache.putAll(mapOf("a" to 1, "b" to 2))
+        now.addAndGet(Duration.ofMinutes(2).toNanos())
+        cache["c"] = 3
+        val refreshedKeys = mutableListOf<Collection<String>>()
+
+        val present = cache.getAllPresent(listOf("a", "b", "c", "d")) { keys ->
+            refreshedKeys.add(keys)
+            keys.associateWith { 10 }
+        }
+
+        assertEquals(mapOf("a" to 1, "b" to 2, "c" to 3), present)
+        withTimeout(5_000) {
+            while (cache.get("a") { 0 } != 10) {
+                delay(10)
+            }
+        }
+        assertEquals(listOf(setOf("a", "b")), refreshedKeys.map { it.toSet() })
+    }
+}
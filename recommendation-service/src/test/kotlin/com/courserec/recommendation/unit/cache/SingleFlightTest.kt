@@ -0,0 +1,59 @@
+package com.courserec.recommendation.unit.cache
+
+import com.courserec.recommendation.cache.SingleFlight
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.jupiter.api.Test
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class SingleFlightTest {
+    @Test
+    fun testConcurrentCallersShareOneExecution() = runBlocking {
+        val singleFlight = SingleFlight<String, Int>()
+        val executions = AtomicInteger()
+        val release = CompletableDeferred<Unit>()
+
+        val callers = List(10) {
+            async {
+                singleFlight.execute("user") {
+                    executions.incrementAndGet()
+                    release.await()
+                    42
+                }
+            }
+        }
+        repeat(10) { yield() }
+        release.complete(Unit)
+
+        assertEquals(List(10) { 42 }, callers.awaitAll())
+        assertEquals(1, executions.get())
+        assertEquals(0, singleFlight.inFlightCount)
+    }
+
+    @Test
+    fun testFailureReachesWaitersAndReleasesKey() = runBlocking {
+        val singleFlight = SingleFlight<String, Int>()
+        val release = CompletableDeferred<Unit>()
+
+        val callers = List(3) {
+            async {
+                runCatching {
+                    singleFlight.execute("user") {
+                        release.await()
+                        throw IllegalStateException("rating-service unavailable")
+                    }
+                }
+            }
+        }
+        repeat(10) { yield() }
+        release.complete(Unit)
+
+        callers.awaitAll().forEach { assertFailsWith<IllegalStateException> { it.getOrThrow() } }
+        assertEquals(7, singleFlight.execute("user") { 7 })
+    }
+}
@@ -0,0 +1,80 @@
+package com.courserec.recommendation.unit.client
+
+import com.courserec.recommendation.client.CourseResponse
+import com.courserec.recommendation.client.CourseServiceClient
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.mock.MockEngine
+import io.ktor.client.engine.mock.respond
+import io.ktor.client.engine.mock.respondError
+import io.ktor.client.plugins.contentnegotiation.ContentNegotiation
+import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpStatusCode
+import io.ktor.http.headersOf
+import io.ktor.serialization.kotlinx.json.json
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import org.junit.jupiter.api.AfterEach
+import java.util.UUID
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class CourseServiceClientTest {
+    private val courses = List(4) { CourseResponse(UUID.randomUUID().toString(), "Course $it") }
+    private val courseIds = courses.map { it.getIdAsUUID() }
+
+    // The ids of every batch request, and whether course-service is up
+    private val requestedIds = mutableListOf<List<UUID>>()
+    private var available = true
+
+    private val httpClient = HttpClient(MockEngine) {
+        engine {
+            addHandler { request ->
+                if (!available) {
+                    return@addHandler respondError(HttpStatusCode.ServiceUnavailable)
+                }
+                val ids = request.url.parameters["ids"].orEmpty().split(",").map(UUID::fromString)
+                requestedIds.add(ids)
+                // course-service answers in its own order
+                val found = courses.filter { it.getIdAsUUID() in ids }.reversed()
+                respond(
+                    Json.encodeToString(found),
+                    headers = headersOf(HttpHeaders.ContentType, ContentType.Application.Json.toString())
+                )
+            }
+        }
+        install(ContentNegotiation) { json() }
+    }
+    private val client = CourseServiceClient(httpClient, "")
+
+    @AfterEach
+    fun tearDown() {
+        client.stop()
+    }
+
+    @Test
+    fun testFetchesOnlyMissingCoursesAndKeepsRequestOrder() = runBlocking {
+        assertEquals(courses.take(2), client.getCoursesBatch(courseIds.take(2)))
+
+        val requested = listOf(courseIds[2], courseIds[0], courseIds[3], courseIds[1], courseIds[2])
+        assertEquals(requested.map { id -> courses.single { it.getIdAsUUID() == id } }, client.getCoursesBatch(requested))
+
+        assertEquals(listOf(courseIds.take(2), listOf(courseIds[2], courseIds[3])), requestedIds)
+    }
+
+    @Test
+    fun testServesCachedCoursesWhenCourseServiceFails() = runBlocking {
+        client.getCoursesBatch(courseIds.take(1))
+        available = false
+
+        assertEquals(courses.take(1), client.getCoursesBatch(courseIds.take(2)))
+    }
+
+    @Test
+    fun testSkipsUnknownCourses() = runBlocking {
+        val unknownId = UUID.randomUUID()
+
+        assertEquals(courses.take(1), client.getCoursesBatch(listOf(unknownId, courseIds[0])))
+    }
+}
@@ -0,0 +1,58 @@
+package com.courserec.recommendation.unit.client
+
+import com.courserec.recommendation.client.RatingServiceClient
+import io.ktor.client.plugins.contentnegotiation.ContentNegotiation
+import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpStatusCode
+import io.ktor.serialization.kotlinx.json.json
+import io.ktor.server.application.call
+import io.ktor.server.config.MapApplicationConfig
+import io.ktor.server.response.respond
+import io.ktor.server.response.respondText
+import io.ktor.server.routing.get
+import io.ktor.server.routing.routing
+import io.ktor.server.testing.testApplication
+import java.util.UUID
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class RatingExportFallbackTest {
+    private val ratings = List(3) { Triple(UUID.randomUUID(), UUID.randomUUID(), it + 2) }
+
+    @Test
+    fun testBinaryExportFallsBackToJsonChunks() = testApplication {
+        environment {
+            config = MapApplicationConfig()
+        }
+        routing {
+            // A rating-service without binary support: JSON only, 406 for anything else
+            get("/api/v1/ratings/export") {
+                val accept = call.request.headers[HttpHeaders.Accept].orEmpty()
+                if (!accept.contains(ContentType.Application.Json.toString())) {
+                    call.respond(HttpStatusCode.NotAcceptable)
+                    return@get
+                }
+                val after = call.request.queryParameters["after"]
+                val chunk = if (after == null) ratings.take(2) else ratings.drop(2)
+                val content = chunk.map { (userId, courseId, ratingValue) ->
+                    """{"id":"${UUID.randomUUID()}","userId":"$userId","courseId":"$courseId","ratingValue":$ratingValue}"""
+                }
+                val hasNext = after == null
+                call.respondText(
+                    """{"content":[${content.joinToString(",")}],"nextCursor":"${UUID.randomUUID()}","hasNext":$hasNext}""",
+                    ContentType.Application.Json
+                )
+            }
+        }
+        val httpClient = createClient {
+            install(ContentNegotiation) { json() }
+        }
+        val client = RatingServiceClient(httpClient, "", binaryExport = true)
+
+        val received = mutableListOf<Triple<UUID, UUID, Int>>()
+        client.forEachRating { userId, courseId, ratingValue -> received.add(Triple(userId, courseId, ratingValue)) }
+
+        assertEquals(ratings, received)
+    }
+}
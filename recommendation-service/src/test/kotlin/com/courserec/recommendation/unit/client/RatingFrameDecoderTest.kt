@@ -0,0 +1,29 @@
+package com.courserec.recommendation.unit.client
+
+import com.courserec.recommendation.client.RatingServiceClient
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.util.UUID
+import kotlin.test.assertEquals
+
+class RatingFrameDecoderTest {
+    @Test
+    fun testDecodeRatingFrame() {
+        val ratings = List(3) { Triple(UUID.randomUUID(), UUID.randomUUID(), it + 3) }
+        val buffer = ByteBuffer.allocate(ratings.size * RatingServiceClient.RATING_RECORD_SIZE + 7)
+        for ((userId, courseId, ratingValue) in ratings) {
+            buffer.putLong(userId.mostSignificantBits)
+            buffer.putLong(userId.leastSignificantBits)
+            buffer.putLong(courseId.mostSignificantBits)
+            buffer.putLong(courseId.leastSignificantBits)
+            buffer.put(ratingValue.toByte())
+        }
+
+        val decoded = mutableListOf<Triple<UUID, UUID, Int>>()
+        RatingServiceClient.decodeRatingFrame(buffer.array(), ratings.size * RatingServiceClient.RATING_RECORD_SIZE) { userId, courseId, ratingValue ->
+            decoded.add(Triple(userId, courseId, ratingValue))
+        }
+
+        assertEquals(ratings, decoded)
+    }
+}
@@ -0,0 +1,148 @@
+package com.courserec.recommendation.unit.kafka
+
+import com.courserec.recommendation.kafka.KafkaConsumerConfig
+import com.courserec.recommendation.kafka.RatingEventConsumer
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.support.recommendationService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.consumer.MockConsumer
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp
+import org.apache.kafka.clients.consumer.OffsetResetStrategy
+import org.apache.kafka.common.TopicPartition
+import org.junit.jupiter.api.AfterEach
+import java.util.UUID
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class RatingEventConsumerTest {
+    private val partition = TopicPartition(TOPIC, 0)
+    private val syncCommits = CopyOnWriteArrayList<Map<TopicPartition, OffsetAndMetadata>>()
+
+    // The offset of the first event published after the consumer started
+    private var startOffset = 0L
+    private val mockConsumer = object : MockConsumer<String, String>(OffsetResetStrategy.EARLIEST) {
+        override fun commitSync(offsets: MutableMap<TopicPartition, OffsetAndMetadata>) {
+            syncCommits.add(offsets.toMap())
+            super.commitSync(offsets)
+        }
+
+        override fun offsetsForTimes(timestampsToSearch: MutableMap<TopicPartition, Long>): MutableMap<TopicPartition, OffsetAndTimestamp> {
+            return timestampsToSearch.mapValuesTo(HashMap()) { (_, timestamp) -> OffsetAndTimestamp(startOffset, timestamp) }
+        }
+    }
+    private val ratingMatrix = RatingMatrix()
+
+    // Holds the partition worker inside its first rating until released
+    private val processing = CountDownLatch(1)
+    private val release = CountDownLatch(1)
+
+    private val consumer = RatingEventConsumer(
+        KafkaConsumerConfig("localhost:9092", "recommendation-service-group-test", TOPIC),
+        recommendationService(ratingMatrix),
+        meterRegistry = SimpleMeterRegistry(),
+        consumerFactory = { mockConsumer }
+    )
+
+    init {
+        ratingMatrix.addListener { _, _, _, _ ->
+            processing.countDown()
+            release.await(10, TimeUnit.SECONDS)
+        }
+        mockConsumer.updateBeginningOffsets(mapOf(partition to 0L))
+    }
+
+    @AfterEach
+    fun tearDown() {
+        release.countDown()
+        consumer.stop()
+    }
+
+    @Test
+    fun testCommitsOffsetsOnlyAfterRecordsAreProcessed() {
+        consumer.start()
+        assignWithRecords(3)
+
+        assertTrue(processing.await(5, TimeUnit.SECONDS))
+        assertEquals(null, committedOffset())
+
+        release.countDown()
+        awaitCondition { committedOffset() == 3L }
+        assertEquals(3, ratingMatrix.ratingCount)
+    }
+
+    @Test
+    fun testPausesPartitionWhileWorkerIsBusy() {
+        consumer.start()
+        assignWithRecords(3)
+
+        assertTrue(processing.await(5, TimeUnit.SECONDS))
+        assertEquals(setOf(partition), mockConsumer.paused())
+
+        release.countDown()
+        awaitCondition { mockConsumer.paused().isEmpty() }
+    }
+
+    @Test
+    fun testRevokedPartitionCommitsBeforeRebalanceCompletes() {
+        consumer.start()
+        assignWithRecords(3)
+        assertTrue(processing.await(5, TimeUnit.SECONDS))
+
+        // Released once the poll thread is inside the rebalance, so no regular commit can run first
+        var commitsAtRevoke = emptyList<Map<TopicPartition, OffsetAndMetadata>>()
+        mockConsumer.schedulePollTask {
+            release.countDown()
+            mockConsumer.rebalance(emptyList())
+            commitsAtRevoke = syncCommits.toList()
+        }
+
+        awaitCondition { mockConsumer.assignment().isEmpty() }
+        assertEquals(listOf(mapOf(partition to OffsetAndMetadata(3))), commitsAtRevoke)
+        assertEquals(3, ratingMatrix.ratingCount)
+    }
+
+    @Test
+    fun testNewGroupStartsAtInstanceStart() {
+        // Events 0 and 1 predate the instance and are covered by the matrix bootstrap
+        startOffset = 2
+        release.countDown()
+        consumer.start()
+        assignWithRecords(5)
+
+        awaitCondition { committedOffset() == 5L }
+        assertEquals(3, ratingMatrix.ratingCount)
+    }
+
+    private fun assignWithRecords(count: Int) {
+        mockConsumer.schedulePollTask {
+            mockConsumer.rebalance(listOf(partition))
+            repeat(count) { offset ->
+                mockConsumer.addRecord(ConsumerRecord(TOPIC, 0, offset.toLong(), null, ratingEvent()))
+            }
+        }
+    }
+
+    private fun ratingEvent(): String {
+        return """{"rating_id":"${UUID.randomUUID()}","user_id":"${UUID.randomUUID()}","course_id":"${UUID.randomUUID()}","rating_value":4}"""
+    }
+
+    private fun committedOffset(): Long? = mockConsumer.committed(setOf(partition))[partition]?.offset()
+
+    private fun awaitCondition(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "Condition not met within 5 s" }
+            Thread.sleep(10)
+        }
+    }
+
+    companion object {
+        private const val TOPIC = "ratings"
+    }
+}
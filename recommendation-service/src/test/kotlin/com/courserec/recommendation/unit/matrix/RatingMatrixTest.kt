@@ -0,0 +1,141 @@
+package com.courserec.recommendation.unit.matrix
+
+import com.courserec.recommendation.matrix.IdDictionary
+import com.courserec.recommendation.matrix.RatingMatrix
+import org.junit.jupiter.api.Test
+import java.util.UUID
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class RatingMatrixTest {
+    @Test
+    fun testUpsertKeepsRowsSortedByCourseId() {
+        val matrix = RatingMatrix()
+        val userId = UUID.randomUUID()
+        val courseIds = List(5) { UUID.randomUUID() }
+
+        courseIds.reversed().forEachIndexed { index, courseId ->
+            matrix.upsert(userId, courseId, index + 1)
+        }
+
+        val row = matrix.row(userId)
+        assertEquals(5, row.size)
+        assertContentEquals(row.indices.sortedArray(), row.indices)
+        assertEquals(5, matrix.ratingCount)
+    }
+
+    @Test
+    fun testUpsertReturnsPreviousValue() {
+        val matrix = RatingMatrix()
+        val userId = UUID.randomUUID()
+        val courseId = UUID.randomUUID()
+
+        assertEquals(RatingMatrix.NO_RATING, matrix.upsert(userId, courseId, 3))
+        assertEquals(3, matrix.upsert(userId, courseId, 5))
+        assertEquals(5, matrix.row(userId)[matrix.courses.indexOf(courseId)])
+        assertEquals(1, matrix.ratingCount)
+    }
+
+    @Test
+    fun testBulkLoadDoesNotOverwriteEventData() {
+        val matrix = RatingMatrix()
+        val userId = UUID.randomUUID()
+        val courseId = UUID.randomUUID()
+        val otherCourseId = UUID.randomUUID()
+
+        matrix.upsert(userId, courseId, 2)
+
+        val bulkLoad = matrix.bulkLoad()
+        bulkLoad.add(userId, courseId, 4)
+        bulkLoad.add(userId, otherCourseId, 5)
+        bulkLoad.add(userId, otherCourseId, 1)
+
+        assertEquals(1, bulkLoad.commit())
+        assertEquals(2, matrix.row(userId)[matrix.courses.indexOf(courseId)])
+        assertEquals(5, matrix.row(userId)[matrix.courses.indexOf(otherCourseId)])
+        assertEquals(5, matrix.column(matrix.courses.indexOf(otherCourseId))[matrix.users.indexOf(userId)])
+        assertEquals(2, matrix.ratingCount)
+    }
+
+    @Test
+    fun testBulkLoadNotifiesListenersOfAddedRatings() {
+        val matrix = RatingMatrix()
+        val changes = mutableListOf<Int>()
+        matrix.addListener { _, _, previousValue, ratingValue ->
+            assertEquals(RatingMatrix.NO_RATING, previousValue)
+            changes.add(ratingValue)
+        }
+        val courseId = UUID.randomUUID()
+        matrix.upsert(UUID.randomUUID(), courseId, 3)
+        changes.clear()
+
+        val bulkLoad = matrix.bulkLoad()
+        repeat(4) { bulkLoad.add(UUID.randomUUID(), courseId, it + 1) }
+        bulkLoad.commit()
+
+        assertEquals(listOf(1, 2, 3, 4), changes.sorted())
+        assertEquals(5, matrix.column(matrix.courses.indexOf(courseId)).size)
+    }
+
+    @Test
+    fun testBulkLoadsPopularCourseWithoutPerRatingCopies() {
+        // Copying the column on every rating makes this quadratic: minutes instead of well under a second
+        val matrix = RatingMatrix()
+        val courseId = UUID.randomUUID()
+        val raters = 200_000
+        val startTime = System.nanoTime()
+
+        val bulkLoad = matrix.bulkLoad()
+        repeat(raters) { bulkLoad.add(UUID.randomUUID(), courseId, it % 5 + 1) }
+        assertEquals(raters, bulkLoad.commit())
+
+        val elapsedMs = (System.nanoTime() - startTime) / 1_000_000
+        assertTrue(elapsedMs < 5_000, "Bulk load took $elapsedMs ms")
+        val column = matrix.column(matrix.courses.indexOf(courseId))
+        assertEquals(raters, column.size)
+        assertContentEquals(IntArray(raters) { it }, column.indices)
+        assertEquals(raters, matrix.ratingCount)
+        assertEquals(5, matrix.row(matrix.users.uuidAt(raters - 1))[matrix.courses.indexOf(courseId)])
+    }
+
+    @Test
+    fun testColumnsIndexRatersByCourse() {
+        val matrix = RatingMatrix()
+        val courseId = UUID.randomUUID()
+        val raters = List(3) { UUID.randomUUID() }
+        raters.forEachIndexed { index, userId -> matrix.upsert(userId, courseId, index + 1) }
+        matrix.upsert(UUID.randomUUID(), UUID.randomUUID(), 5)
+
+        val column = matrix.column(matrix.courses.indexOf(courseId))
+        assertEquals(raters.map { matrix.users.indexOf(it) }, column.indices.toList())
+        assertEquals(3, column[matrix.users.indexOf(raters[2])])
+
+        matrix.upsert(raters[0], courseId, 5)
+        assertEquals(5, matrix.column(matrix.courses.indexOf(courseId))[matrix.users.indexOf(raters[0])])
+    }
+
+    @Test
+    fun testRowsGrowBeyondInitialCapacity() {
+        val matrix = RatingMatrix()
+        val courseId = UUID.randomUUID()
+        val userIds = List(5000) { UUID.randomUUID() }
+
+        userIds.forEach { matrix.upsert(it, courseId, 4) }
+
+        assertEquals(5000, matrix.userCount)
+        assertTrue(userIds.all { matrix.row(it).size == 1 })
+    }
+
+    @Test
+    fun testIdDictionaryAssignsDenseIds() {
+        val dictionary = IdDictionary(initialCapacity = 2)
+        val ids = List(10) { UUID.randomUUID() }
+
+        ids.forEachIndexed { index, id -> assertEquals(index, dictionary.intern(id)) }
+
+        assertEquals(3, dictionary.intern(ids[3]))
+        assertEquals(ids[7], dictionary.uuidAt(7))
+        assertEquals(IdDictionary.NOT_FOUND, dictionary.indexOf(UUID.randomUUID()))
+    }
+}
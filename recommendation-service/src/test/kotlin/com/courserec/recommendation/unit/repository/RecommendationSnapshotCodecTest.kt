@@ -0,0 +1,53 @@
+package com.courserec.recommendation.unit.repository
+
+import com.courserec.recommendation.repository.RecommendationData
+import com.courserec.recommendation.repository.RecommendationSnapshotCodec
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+import java.util.UUID
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class RecommendationSnapshotCodecTest {
+    private val userId = UUID.randomUUID()
+
+    @Test
+    fun testRoundTripInRankOrder() {
+        val recommendations = listOf(
+            RecommendationData(userId, UUID.randomUUID(), BigDecimal("3.5000"), 2),
+            RecommendationData(userId, UUID.randomUUID(), BigDecimal("4.2500"), 1),
+            RecommendationData(userId, UUID.randomUUID(), BigDecimal("1.0001"), 3)
+        )
+
+        val payload = RecommendationSnapshotCodec.encode(recommendations)
+        assertEquals(1 + recommendations.size * RecommendationSnapshotCodec.ENTRY_SIZE, payload.size)
+
+        assertEquals(recommendations.sortedBy { it.rank }, RecommendationSnapshotCodec.decode(userId, payload))
+    }
+
+    @Test
+    fun testDecodeHonorsLimit() {
+        val recommendations = List(10) { RecommendationData(userId, UUID.randomUUID(), BigDecimal("4.0000"), it + 1) }
+
+        val decoded = RecommendationSnapshotCodec.decode(userId, RecommendationSnapshotCodec.encode(recommendations), 3)
+
+        assertEquals(recommendations.take(3), decoded)
+    }
+
+    @Test
+    fun testScoreIsStoredAtColumnPrecision() {
+        val recommendation = RecommendationData(userId, UUID.randomUUID(), BigDecimal("3.14159"), 1)
+
+        val decoded = RecommendationSnapshotCodec.decode(userId, RecommendationSnapshotCodec.encode(listOf(recommendation)))
+
+        assertEquals(BigDecimal("3.1416"), decoded.single().relevanceScore)
+    }
+
+    @Test
+    fun testEmptySetAndCorruptPayload() {
+        assertTrue(RecommendationSnapshotCodec.decode(userId, RecommendationSnapshotCodec.encode(emptyList())).isEmpty())
+        assertFailsWith<IllegalStateException> { RecommendationSnapshotCodec.decode(userId, byteArrayOf(1, 0, 0)) }
+        assertFailsWith<IllegalStateException> { RecommendationSnapshotCodec.decode(userId, byteArrayOf(9)) }
+    }
+}
@@ -0,0 +1,75 @@
+package com.courserec.recommendation.unit.repository
+
+import com.courserec.recommendation.repository.RecommendationData
+import com.courserec.recommendation.repository.RecommendationWriteBehind
+import com.courserec.recommendation.repository.StoredRecommendations
+import com.courserec.recommendation.support.FakeRecommendationStore
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlinx.datetime.Instant
+import java.math.BigDecimal
+import java.util.UUID
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class RecommendationWriteBehindTest {
+    private val store = FakeRecommendationStore()
+    private val meterRegistry = SimpleMeterRegistry()
+
+    @Test
+    fun testCoalescesSetsOfTheSameUser() = runBlocking {
+        val writeBehind = RecommendationWriteBehind(store, meterRegistry, flushIntervalMs = 60_000)
+        val userId = UUID.randomUUID()
+        val latest = recommendations(userId, 3)
+
+        writeBehind.start()
+        writeBehind.submit(userId, recommendations(userId, 1))
+        writeBehind.submit(userId, recommendations(userId, 2))
+        writeBehind.submit(userId, latest)
+        writeBehind.stop()
+
+        assertEquals(listOf(mapOf(userId to latest)), store.batches)
+        assertEquals(2.0, meterRegistry.counter("recommendations.writebehind.coalesced").count())
+    }
+
+    @Test
+    fun testFailedFlushRequeuesWithoutLeakingPermits() = runBlocking {
+        // One permit: the second user can only be queued once the first user's permit is returned
+        val writeBehind = RecommendationWriteBehind(store, meterRegistry, capacity = 1, flushIntervalMs = 10)
+        val firstUser = UUID.randomUUID()
+        val secondUser = UUID.randomUUID()
+        store.failuresLeft.set(2)
+
+        writeBehind.start()
+        writeBehind.submit(firstUser, recommendations(firstUser, 1))
+        withTimeout(5_000) {
+            writeBehind.submit(secondUser, recommendations(secondUser, 1))
+            while (store.batches.size < 2) {
+                delay(10)
+            }
+        }
+        writeBehind.stop()
+
+        assertEquals(listOf(setOf(firstUser), setOf(secondUser)), store.batches.map { it.keys })
+        assertEquals(2.0, meterRegistry.counter("recommendations.writebehind.failed").count())
+    }
+
+    @Test
+    fun testStopFlushesPendingSets() = runBlocking {
+        val writeBehind = RecommendationWriteBehind(store, meterRegistry, batchSize = 2, flushIntervalMs = 60_000)
+        val sets = List(5) { UUID.randomUUID() }.associateWith { recommendations(it, 1) }
+
+        writeBehind.start()
+        sets.forEach { (userId, recommendations) -> writeBehind.submit(userId, recommendations) }
+        writeBehind.stop()
+
+        assertEquals(sets, store.batches.fold(emptyMap()) { written, batch -> written + batch })
+    }
+
+    private fun recommendations(userId: UUID, generatedAtMs: Long): StoredRecommendations {
+        val recommendations = List(3) { RecommendationData(userId, UUID.randomUUID(), BigDecimal("4.0000"), it + 1) }
+        return StoredRecommendations(recommendations, Instant.fromEpochMilliseconds(generatedAtMs))
+    }
+}
@@ -0,0 +1,90 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.service.ItemSimilarityModel
+import com.courserec.recommendation.service.RecommendationAlgorithm
+import org.junit.jupiter.api.Test
+import java.util.UUID
+import kotlin.math.sqrt
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ItemSimilarityModelTest {
+    private val algorithm = RecommendationAlgorithm()
+
+    @Test
+    fun testNeighborsUseFullColumnCosine() {
+        val matrix = RatingMatrix()
+        val model = ItemSimilarityModel(matrix, neighborCount = 2)
+        matrix.addListener(model)
+        val (alice, bob, carol) = List(3) { UUID.randomUUID() }
+        val (course1, course2, course3) = List(3) { UUID.randomUUID() }
+
+        matrix.upsert(alice, course1, 5)
+        matrix.upsert(alice, course2, 4)
+        matrix.upsert(bob, course1, 3)
+        matrix.upsert(bob, course3, 2)
+        matrix.upsert(carol, course2, 1)
+        model.rebuild()
+
+        val neighbors = model.neighborsOf(matrix.courses.indexOf(course1))
+        // course1 = (5, 3, 0), course2 = (4, 0, 1), course3 = (0, 2, 0) over (alice, bob, carol)
+        assertEquals(listOf(course2, course3), neighbors.indices.map { matrix.courses.uuidAt(it) })
+        assertEquals(20.0 / (sqrt(34.0) * sqrt(17.0)), neighbors.similarities[0], 1e-9)
+        assertEquals(6.0 / (sqrt(34.0) * 2.0), neighbors.similarities[1], 1e-9)
+    }
+
+    @Test
+    fun testPatchedModelMatchesRebuild() {
+        val random = Random(5)
+        val matrix = RatingMatrix()
+        val patched = ItemSimilarityModel(matrix, neighborCount = 40)
+        matrix.addListener(patched)
+        val users = List(80) { UUID.randomUUID() }
+        val courses = List(30) { UUID.randomUUID() }
+
+        repeat(500) { matrix.upsert(users.random(random), courses.random(random), random.nextInt(1, 6)) }
+        patched.rebuild()
+        // Re-ratings and new ratings after the build are only applied as patches
+        repeat(200) { matrix.upsert(users.random(random), courses.random(random), random.nextInt(1, 6)) }
+        assertTrue(patched.applyPendingChanges() > 0)
+
+        val rebuilt = ItemSimilarityModel(matrix, neighborCount = 40)
+        users.forEach { userId ->
+            val row = matrix.row(userId)
+            row.indices.indices.forEach { k -> rebuilt.onRatingChanged(0, row.indices[k], 0, row.values[k].toInt()) }
+        }
+        rebuilt.rebuild()
+
+        // The neighbor count exceeds the course count, so no list is truncated and the patches are exact
+        for (courseIndex in 0 until matrix.courseCount) {
+            val expected = rebuilt.neighborsOf(courseIndex)
+            val actual = patched.neighborsOf(courseIndex)
+            assertEquals(expected.indices.toList(), actual.indices.toList())
+            expected.similarities.indices.forEach { assertEquals(expected.similarities[it], actual.similarities[it], 1e-9) }
+        }
+    }
+
+    @Test
+    fun testItemBasedRecommendationsSkipRatedCourses() {
+        val random = Random(9)
+        val matrix = RatingMatrix()
+        val model = ItemSimilarityModel(matrix)
+        matrix.addListener(model)
+        val users = List(40) { UUID.randomUUID() }
+        val courses = List(20) { UUID.randomUUID() }
+        repeat(300) { matrix.upsert(users.random(random), courses.random(random), random.nextInt(1, 6)) }
+        model.rebuild()
+
+        val target = users.maxBy { matrix.row(it).size }
+        val targetIndex = matrix.users.indexOf(target)
+        val recommendations = algorithm.generateItemBasedRecommendations(targetIndex, matrix, model, 5)
+
+        assertEquals(5, recommendations.size)
+        recommendations.forEach { (courseId, _) ->
+            assertTrue(matrix.courses.indexOf(courseId) !in matrix.row(targetIndex))
+        }
+        assertEquals(recommendations.sortedByDescending { it.second }, recommendations)
+    }
+}
@@ -0,0 +1,91 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.service.LshNeighborSearch
+import com.courserec.recommendation.service.RecommendationAlgorithm
+import com.courserec.recommendation.support.communityRatings
+import org.junit.jupiter.api.Test
+import java.util.UUID
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class LshNeighborSearchTest {
+    private val algorithm = RecommendationAlgorithm()
+
+    @Test
+    fun testIndexDoesNotDependOnRatingOrder() {
+        val random = Random(4)
+        val users = List(200) { UUID.randomUUID() }
+        val courses = List(50) { UUID.randomUUID() }
+        val ratings = List(2000) { Triple(users.random(random), courses.random(random), random.nextInt(1, 6)) }
+
+        // Courses get the same dense ids in both matrices, so only the rating order differs
+        val (matrix, search) = index(ratings, LshNeighborSearch(algorithm), courses)
+        val (shuffledMatrix, shuffledSearch) = index(ratings.shuffled(random), LshNeighborSearch(algorithm), courses)
+
+        for (userId in users) {
+            val candidates = search.findCandidateUsers(matrix.users.indexOf(userId)).stream()
+                .mapToObj { matrix.users.uuidAt(it) }.toList().toSet()
+            val shuffledCandidates = shuffledSearch.findCandidateUsers(shuffledMatrix.users.indexOf(userId)).stream()
+                .mapToObj { shuffledMatrix.users.uuidAt(it) }.toList().toSet()
+            assertEquals(candidates, shuffledCandidates)
+        }
+    }
+
+    /**
+     * Recall against each target's ten nearest users by Jaccard similarity of their course sets,
+     * which MinHash estimates, and candidate pruning against the exact scan.
+     * Latency is compared in LshNeighborSearchBenchmark.
+     */
+    @Test
+    fun testRecallAgainstExactScan() {
+        val random = Random(17)
+        val ratings = communityRatings(random)
+        val (matrix, search) = index(ratings, LshNeighborSearch(algorithm))
+        val targets = (0 until matrix.userCount).shuffled(random).take(200)
+
+        var found = 0
+        var expected = 0
+        var lshCandidates = 0L
+        var exactCandidates = 0L
+        for (target in targets) {
+            val nearest = nearestByJaccard(matrix, target, 10)
+            val candidates = search.findCandidateUsers(target)
+            found += nearest.count { candidates[it] }
+            expected += nearest.size
+            lshCandidates += candidates.cardinality()
+            exactCandidates += algorithm.findCandidateUsers(matrix.row(target), matrix).cardinality()
+        }
+        val recall = found.toDouble() / expected
+
+        assertTrue(recall >= 0.85, "recall $recall")
+        assertTrue(lshCandidates * 2 < exactCandidates, "lsh $lshCandidates, exact $exactCandidates")
+    }
+
+    private fun index(
+        ratings: List<Triple<UUID, UUID, Int>>,
+        search: LshNeighborSearch,
+        courses: List<UUID> = emptyList()
+    ): Pair<RatingMatrix, LshNeighborSearch> {
+        val matrix = RatingMatrix()
+        courses.forEach { matrix.courses.intern(it) }
+        matrix.addListener(search)
+        ratings.forEach { (userId, courseId, value) -> matrix.upsert(userId, courseId, value) }
+        return Pair(matrix, search)
+    }
+
+    private fun nearestByJaccard(matrix: RatingMatrix, target: Int, n: Int): List<Int> {
+        val targetCourses = matrix.row(target).indices.toSet()
+        return (0 until matrix.userCount)
+            .filter { it != target }
+            .map { user ->
+                val courses = matrix.row(user).indices.toSet()
+                val common = courses.count { it in targetCourses }
+                Pair(user, common.toDouble() / (courses.size + targetCourses.size - common))
+            }
+            .sortedWith(compareByDescending<Pair<Int, Double>> { it.second }.thenBy { it.first })
+            .take(n)
+            .map { it.first }
+    }
+}
@@ -0,0 +1,106 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.matrix.SparseVector
+import com.courserec.recommendation.service.MatrixFactorizationModel
+import org.junit.jupiter.api.Test
+import java.util.UUID
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class MatrixFactorizationModelTest {
+    @Test
+    fun testFitsLowRankRatings() {
+        val random = Random(3)
+        val matrix = RatingMatrix()
+        val users = List(100) { UUID.randomUUID() }
+        val courses = List(40) { UUID.randomUUID() }
+        // Two user tastes over two course genres
+        val userTaste = users.map { random.nextInt(2) }
+        val courseGenre = courses.map { random.nextInt(2) }
+
+        users.forEachIndexed { u, userId ->
+            courses.forEachIndexed { c, courseId ->
+                if (random.nextDouble() < 0.3) {
+                    val rating = if (userTaste[u] == courseGenre[c]) 5 else 1
+                    matrix.upsert(userId, courseId, rating)
+                }
+            }
+        }
+
+        val model = MatrixFactorizationModel(matrix, rank = 4, regularization = 0.01)
+        model.train()
+
+        // Every recommended (unrated) course matches the user's taste
+        var hits = 0
+        var total = 0
+        users.forEachIndexed { u, userId ->
+            model.recommend(matrix.row(userId), 3).forEach { (courseIndex, _) ->
+                val c = courses.indexOf(matrix.courses.uuidAt(courseIndex))
+                total++
+                if (courseGenre[c] == userTaste[u]) hits++
+            }
+        }
+        assertEquals(total, hits)
+        assertEquals(300, total)
+    }
+
+    @Test
+    fun testRecommendsOnlyUnratedCoursesBestFirst() {
+        val random = Random(8)
+        val matrix = RatingMatrix()
+        val users = List(30) { UUID.randomUUID() }
+        val courses = List(20) { UUID.randomUUID() }
+        repeat(200) { matrix.upsert(users.random(random), courses.random(random), random.nextInt(1, 6)) }
+
+        val model = MatrixFactorizationModel(matrix, rank = 3)
+        val target = matrix.row(users[0])
+        assertTrue(model.recommend(target, 5).isEmpty())
+
+        model.train()
+        val recommendations = model.recommend(target, 5)
+
+        assertEquals(5, recommendations.size)
+        recommendations.forEach { (courseIndex, _) -> assertTrue(courseIndex !in target) }
+        assertEquals(recommendations.sortedByDescending { it.second }, recommendations)
+    }
+
+    @Test
+    fun testTrainingErrorIsSmall() {
+        val random = Random(21)
+        val matrix = RatingMatrix()
+        val users = List(60) { UUID.randomUUID() }
+        val courses = List(25) { UUID.randomUUID() }
+        val userBias = users.map { random.nextDouble(-1.0, 1.0) }
+        users.forEachIndexed { u, userId ->
+            courses.forEachIndexed { c, courseId ->
+                if (random.nextDouble() < 0.5) {
+                    matrix.upsert(userId, courseId, (3 + userBias[u] + (c % 3 - 1)).roundToInt().coerceIn(1, 5))
+                }
+            }
+        }
+
+        val model = MatrixFactorizationModel(matrix, rank = 6, regularization = 0.01)
+        model.train()
+
+        // Leave-one-out: fold each user in without one rating, then predict that rating
+        var squaredError = 0.0
+        var count = 0
+        users.take(10).forEach { userId ->
+            val row = matrix.row(userId)
+            row.indices.indices.forEach { k ->
+                val heldOut = row.indices[k]
+                val remaining = row.indices.indices.filter { it != k }.fold(SparseVector.EMPTY) { vector, m ->
+                    vector.with(row.indices[m], row.values[m].toInt())
+                }
+                val prediction = model.recommend(remaining, matrix.courseCount).first { it.first == heldOut }.second
+                squaredError += (prediction - row.values[k]) * (prediction - row.values[k])
+                count++
+            }
+        }
+        assertTrue(sqrt(squaredError / count) < 1.0, "rmse ${sqrt(squaredError / count)}")
+    }
+}
@@ -0,0 +1,80 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.service.PopularityTable
+import com.courserec.recommendation.service.RecommendationAlgorithm
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+import java.math.RoundingMode
+import java.util.UUID
+import kotlin.random.Random
+import kotlin.test.assertEquals
+
+class PopularityTableTest {
+    private val algorithm = RecommendationAlgorithm()
+
+    @Test
+    fun testMatchesFullRecomputationAfterUpdates() {
+        val random = Random(11)
+        val matrix = RatingMatrix()
+        val popularityTable = PopularityTable()
+        matrix.addListener(popularityTable)
+        val users = List(60) { UUID.randomUUID() }
+        val courses = List(25) { UUID.randomUUID() }
+
+        // Includes re-ratings, which must replace rather than add to the course sums
+        repeat(600) {
+            matrix.upsert(users.random(random), courses.random(random), random.nextInt(1, 6))
+        }
+
+        val target = users[0]
+        val expected = recomputePopularity(matrix, users, matrix.row(target).indices.toSet(), 10)
+
+        val actual = algorithm.generatePopularityBasedRecommendations(popularityTable, matrix, matrix.row(target), 10)
+
+        assertEquals(expected, actual)
+    }
+
+    // Full recomputation from the matrix rows: 5+ ratings unless no unrated course has that many
+    private fun recomputePopularity(
+        matrix: RatingMatrix,
+        users: List<UUID>,
+        excludeCourses: Set<Int>,
+        limit: Int
+    ): List<Pair<UUID, BigDecimal>> {
+        val sums = mutableMapOf<Int, Int>()
+        val counts = mutableMapOf<Int, Int>()
+        for (userId in users) {
+            val row = matrix.row(userId)
+            for (k in 0 until row.size) {
+                val courseIndex = row.indices[k]
+                if (courseIndex in excludeCourses) continue
+                sums.merge(courseIndex, row.values[k].toInt(), Int::plus)
+                counts.merge(courseIndex, 1, Int::plus)
+            }
+        }
+        val minRatings = if (counts.values.any { it >= 5 }) 5 else 1
+        return counts.filterValues { it >= minRatings }
+            .map { (courseIndex, count) ->
+                courseIndex to RecommendationAlgorithm.popularityScore(sums.getValue(courseIndex).toDouble() / count, count)
+            }
+            .sortedByDescending { it.second }
+            .take(limit)
+            .map { (courseIndex, score) ->
+                matrix.courses.uuidAt(courseIndex) to BigDecimal(score).setScale(4, RoundingMode.HALF_UP)
+            }
+    }
+
+    @Test
+    fun testFallsBackToSingleRatingThreshold() {
+        val matrix = RatingMatrix()
+        val popularityTable = PopularityTable()
+        matrix.addListener(popularityTable)
+        val courseId = UUID.randomUUID()
+        matrix.upsert(UUID.randomUUID(), courseId, 4)
+
+        val recommendations = popularityTable.topCourses(matrix.row(UUID.randomUUID()), 10)
+
+        assertEquals(listOf(matrix.courses.indexOf(courseId)), recommendations.map { it.first })
+    }
+}
@@ -1,65 +1,145 @@
 package com.courserec.recommendation.unit.service
 
+import com.courserec.recommendation.matrix.RatingMatrix
+import com.courserec.recommendation.service.PopularityTable
 import com.courserec.recommendation.service.RecommendationAlgorithm
+import kotlinx.coroutines.runBlocking
 import org.junit.jupiter.api.Test
 import java.math.BigDecimal
 import java.util.UUID
+import java.util.concurrent.ForkJoinPool
+import kotlin.random.Random
 import kotlin.test.assertEquals
-import kotlin.test.assertTrue
 
 class RecommendationAlgorithmTest {
     private val algorithm = RecommendationAlgorithm()
 
     @Test
     fun testCalculateCosineSimilarity() {
-        val user1Ratings = mapOf(
-            UUID.randomUUID() to 5,
-            UUID.randomUUID() to 4,
-            UUID.randomUUID() to 3
-        )
-        val user2Ratings = mapOf(
-            user1Ratings.keys.elementAt(0) to 5,
-            user1Ratings.keys.elementAt(1) to 4,
-            user1Ratings.keys.elementAt(2) to 3
-        )
+        val matrix = RatingMatrix()
+        val user1 = UUID.randomUUID()
+        val user2 = UUID.randomUUID()
+        val courses = List(3) { UUID.randomUUID() }
+        courses.forEachIndexed { index, courseId ->
+            matrix.upsert(user1, courseId, 5 - index)
+            matrix.upsert(user2, courseId, 5 - index)
+        }
 
-        val similarity = algorithm.calculateCosineSimilarity(user1Ratings, user2Ratings)
+        val similarity = algorithm.calculateCosineSimilarity(matrix.row(user1), matrix.row(user2))
         assertEquals(1.0, similarity, 0.01)
     }
 
     @Test
     fun testCalculateCosineSimilarityNoCommonCourses() {
-        val user1Ratings = mapOf(UUID.randomUUID() to 5)
-        val user2Ratings = mapOf(UUID.randomUUID() to 4)
+        val matrix = RatingMatrix()
+        val user1 = UUID.randomUUID()
+        val user2 = UUID.randomUUID()
+        matrix.upsert(user1, UUID.randomUUID(), 5)
+        matrix.upsert(user2, UUID.randomUUID(), 4)
 
-        val similarity = algorithm.calculateCosineSimilarity(user1Ratings, user2Ratings)
+        val similarity = algorithm.calculateCosineSimilarity(matrix.row(user1), matrix.row(user2))
         assertEquals(0.0, similarity)
     }
 
     @Test
-    fun testGeneratePopularityBasedRecommendations() {
-        val ratings = listOf(
-            com.courserec.recommendation.client.RatingResponse(
-                id = UUID.randomUUID().toString(),
-                userId = UUID.randomUUID().toString(),
-                courseId = UUID.randomUUID().toString(),
-                ratingValue = 5
-            ),
-            com.courserec.recommendation.client.RatingResponse(
-                id = UUID.randomUUID().toString(),
-                userId = UUID.randomUUID().toString(),
-                courseId = UUID.randomUUID().toString(),
-                ratingValue = 4
-            )
+    fun testCalculateCosineSimilarityOverCommonCourses() {
+        val matrix = RatingMatrix()
+        val user1 = UUID.randomUUID()
+        val user2 = UUID.randomUUID()
+        val courses = List(6) { UUID.randomUUID() }
+        val user1Ratings = mapOf(courses[0] to 5, courses[1] to 3, courses[2] to 1, courses[3] to 4)
+        val user2Ratings = mapOf(courses[1] to 4, courses[2] to 2, courses[3] to 5, courses[5] to 1)
+        user1Ratings.forEach { (courseId, value) -> matrix.upsert(user1, courseId, value) }
+        user2Ratings.forEach { (courseId, value) -> matrix.upsert(user2, courseId, value) }
+
+        // Norms over the common courses only: (3, 1, 4) and (4, 2, 5)
+        val expected = (3 * 4 + 1 * 2 + 4 * 5) / (Math.sqrt(26.0) * Math.sqrt(45.0))
+        val similarity = algorithm.calculateCosineSimilarity(matrix.row(user1), matrix.row(user2))
+        assertEquals(expected, similarity, 1e-9)
+    }
+
+    @Test
+    fun testCollaborativeFilteringRecommendsUnratedCourses() = runBlocking {
+        val matrix = RatingMatrix()
+        val target = UUID.randomUUID()
+        val neighbor = UUID.randomUUID()
+        val courses = List(4) { UUID.randomUUID() }
+        courses.take(3).forEach { matrix.upsert(target, it, 5) }
+        courses.forEach { matrix.upsert(neighbor, it, 4) }
+
+        val targetIndex = matrix.users.indexOf(target)
+        val recommendations = algorithm.generateCollaborativeFilteringRecommendations(
+            targetIndex,
+            matrix,
+            10,
+            algorithm.findSimilarUsers(targetIndex, matrix)
         )
 
+        assertEquals(listOf(courses[3]), recommendations.map { it.first })
+    }
+
+    @Test
+    fun testParallelNeighborSearchMatchesSequential() = runBlocking {
+        val random = Random(7)
+        val matrix = RatingMatrix()
+        val courses = List(40) { UUID.randomUUID() }
+        val users = List(500) { UUID.randomUUID() }
+        users.forEach { userId ->
+            courses.shuffled(random).take(random.nextInt(3, 10)).forEach { courseId ->
+                matrix.upsert(userId, courseId, random.nextInt(1, 6))
+            }
+        }
+        val parallelAlgorithm = RecommendationAlgorithm(ForkJoinPool(4), parallelThreshold = 16)
+        val targetIndex = matrix.users.indexOf(users[0])
+
+        val sequential = algorithm.findSimilarUsers(targetIndex, matrix, topN = 10)
+        val parallel = parallelAlgorithm.findSimilarUsers(targetIndex, matrix, topN = 10)
+
+        assertEquals(sequential, parallel)
+    }
+
+    @Test
+    fun testCollaborativeFilteringAveragesNeighborRatingsBySimilarity() {
+        val matrix = RatingMatrix()
+        val target = UUID.randomUUID()
+        val courses = List(4) { UUID.randomUUID() }
+        courses.take(3).forEach { matrix.upsert(target, it, 4) }
+        val closer = UUID.randomUUID()
+        val further = UUID.randomUUID()
+        courses.take(3).forEach { matrix.upsert(closer, it, 4) }
+        matrix.upsert(closer, courses[3], 5)
+        matrix.upsert(further, courses[0], 1)
+        matrix.upsert(further, courses[3], 1)
+        val similarUsers = listOf(matrix.users.indexOf(closer) to 0.75, matrix.users.indexOf(further) to 0.25)
+
+        // Repeated calls reuse the per-thread accumulator, which must start clean each time
+        repeat(2) {
+            val recommendations = algorithm.generateCollaborativeFilteringRecommendations(
+                matrix.users.indexOf(target),
+                matrix,
+                10,
+                similarUsers
+            )
+
+            assertEquals(listOf(courses[3] to BigDecimal("4.0000")), recommendations)
+        }
+    }
+
+    @Test
+    fun testGeneratePopularityBasedRecommendations() {
+        val matrix = RatingMatrix()
+        val popularityTable = PopularityTable()
+        matrix.addListener(popularityTable)
+        matrix.upsert(UUID.randomUUID(), UUID.randomUUID(), 5)
+        matrix.upsert(UUID.randomUUID(), UUID.randomUUID(), 4)
+
         val recommendations = algorithm.generatePopularityBasedRecommendations(
-            ratings,
-            emptySet(),
+            popularityTable,
+            matrix,
+            matrix.row(UUID.randomUUID()),
             10
         )
 
-        assertTrue(recommendations.isNotEmpty())
+        assertEquals(2, recommendations.size)
     }
 }
-
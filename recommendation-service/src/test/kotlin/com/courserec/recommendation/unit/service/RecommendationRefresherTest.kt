@@ -0,0 +1,79 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.service.RecommendationRefresher
+import kotlinx.coroutines.CompletableDeferred
+import java.util.UUID
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class RecommendationRefresherTest {
+    private val refreshed = CopyOnWriteArrayList<UUID>()
+
+    // Holds the single worker inside its first refresh until completed
+    private val gate = CompletableDeferred<Unit>()
+
+    private val refresher = RecommendationRefresher(
+        { userId ->
+            refreshed.add(userId)
+            gate.await()
+        },
+        workers = 1,
+        queueCapacity = 2
+    )
+
+    @Test
+    fun testRefreshesEachPendingUserOnce() {
+        val busyUser = UUID.randomUUID()
+        val userIds = List(2) { UUID.randomUUID() }
+        refresher.start()
+        refresher.submit(listOf(busyUser))
+        awaitCondition { refreshed.size == 1 }
+
+        // Ratings of users that are still queued do not queue them again
+        refresher.submit(userIds + userIds.first())
+        refresher.submit(listOf(userIds.first()))
+        gate.complete(Unit)
+        awaitCondition { refreshed.size == 3 }
+
+        // Once refreshed, a new rating queues the user again
+        refresher.submit(listOf(userIds.first()))
+        awaitCondition { refreshed.size == 4 }
+        refresher.stop()
+
+        assertEquals(listOf(busyUser) + userIds + userIds.first(), refreshed)
+    }
+
+    @Test
+    fun testStopReleasesSubmitBlockedOnFullQueue() {
+        refresher.start()
+        refresher.submit(listOf(UUID.randomUUID()))
+        awaitCondition { refreshed.size == 1 }
+        refresher.submit(List(2) { UUID.randomUUID() })
+        val blockedSubmit = thread { refresher.submit(listOf(UUID.randomUUID())) }
+        blockedSubmit.join(200)
+        assertTrue(blockedSubmit.isAlive)
+
+        val stopping = thread { refresher.stop() }
+        blockedSubmit.join(TimeUnit.SECONDS.toMillis(5))
+        assertFalse(blockedSubmit.isAlive)
+
+        gate.complete(Unit)
+        stopping.join(TimeUnit.SECONDS.toMillis(5))
+        assertFalse(stopping.isAlive)
+        // The queued users were dropped rather than refreshed during shutdown
+        assertEquals(1, refreshed.size)
+    }
+
+    private fun awaitCondition(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "Condition not met within 5 s" }
+            Thread.sleep(10)
+        }
+    }
+}
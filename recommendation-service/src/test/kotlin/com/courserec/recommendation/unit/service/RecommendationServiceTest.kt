@@ -0,0 +1,73 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.repository.RecommendationData
+import com.courserec.recommendation.repository.StoredRecommendations
+import com.courserec.recommendation.support.FakeRecommendationStore
+import com.courserec.recommendation.support.recommendationService
+import kotlinx.coroutines.runBlocking
+import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
+import java.math.BigDecimal
+import java.util.UUID
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.seconds
+
+class RecommendationServiceTest {
+    private val userId = UUID.randomUUID()
+    private val store = FakeRecommendationStore()
+    private val service = recommendationService(recommendationStore = store)
+
+    @Test
+    fun testServesFreshPersistedSet() = runBlocking {
+        val stored = storedSet(size = 10, generatedAt = Clock.System.now() - 10.seconds)
+        store.sets[userId] = stored
+
+        assertEquals(stored.recommendations, service.generateRecommendations(userId, 10))
+        // Cached from then on
+        assertEquals(stored.recommendations.take(5), service.generateRecommendations(userId, 5))
+        assertEquals(1, store.lookups.size)
+    }
+
+    @Test
+    fun testIgnoresPersistedSetSmallerThanLimit() = runBlocking {
+        store.sets[userId] = storedSet(size = 3, generatedAt = Clock.System.now() - 10.seconds)
+
+        assertEquals(emptyList(), service.generateRecommendations(userId, 10))
+        assertEquals(1, store.lookups.size)
+    }
+
+    @Test
+    fun testIgnoresPersistedSetOlderThanFreshnessWindow() = runBlocking {
+        store.sets[userId] = storedSet(size = 10, generatedAt = Clock.System.now() - 2.hours)
+
+        assertEquals(emptyList(), service.generateRecommendations(userId, 10))
+        assertTrue(store.lookups.single() > Clock.System.now() - 2.hours)
+    }
+
+    @Test
+    fun testIgnoresPersistedSetOlderThanRatingChange() = runBlocking {
+        store.sets[userId] = storedSet(size = 10, generatedAt = Clock.System.now() - 10.seconds)
+
+        service.onRatingSubmitted(userId, UUID.randomUUID(), 4)
+
+        assertEquals(emptyList(), service.generateRecommendations(userId, 10))
+        assertTrue(store.lookups.single() > store.sets.getValue(userId).generatedAt)
+    }
+
+    @Test
+    fun testServesPersistedSetComputedAfterRatingChange() = runBlocking {
+        service.onRatingSubmitted(userId, UUID.randomUUID(), 4)
+        val stored = storedSet(size = 10, generatedAt = Clock.System.now() + 1.seconds)
+        store.sets[userId] = stored
+
+        assertEquals(stored.recommendations, service.generateRecommendations(userId, 10))
+    }
+
+    private fun storedSet(size: Int, generatedAt: Instant): StoredRecommendations {
+        val recommendations = List(size) { RecommendationData(userId, UUID.randomUUID(), BigDecimal("4.0000"), it + 1) }
+        return StoredRecommendations(recommendations, generatedAt)
+    }
+}
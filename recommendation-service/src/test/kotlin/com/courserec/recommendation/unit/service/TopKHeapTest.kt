@@ -0,0 +1,42 @@
+package com.courserec.recommendation.unit.service
+
+import com.courserec.recommendation.service.TopKHeap
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+import kotlin.test.assertEquals
+
+class TopKHeapTest {
+    @Test
+    fun testKeepsBestEntriesInOrder() {
+        val random = Random(42)
+        val scores = List(1000) { random.nextDouble() }
+        val heap = TopKHeap(10)
+
+        scores.forEachIndexed { id, score -> heap.offer(id, score) }
+
+        val expected = scores.withIndex().sortedByDescending { it.value }.take(10).map { it.index }
+        assertEquals(expected, heap.toSortedList().map { it.first })
+    }
+
+    @Test
+    fun testMergeEqualsSingleHeap() {
+        val left = TopKHeap(3)
+        val right = TopKHeap(3)
+        listOf(1 to 0.1, 2 to 0.9, 3 to 0.4).forEach { (id, score) -> left.offer(id, score) }
+        listOf(4 to 0.8, 5 to 0.2, 6 to 0.95).forEach { (id, score) -> right.offer(id, score) }
+
+        left.merge(right)
+
+        assertEquals(listOf(6, 2, 4), left.toSortedList().map { it.first })
+    }
+
+    @Test
+    fun testTiesPreferLowerId() {
+        val heap = TopKHeap(2)
+        heap.offer(7, 0.5)
+        heap.offer(3, 0.5)
+        heap.offer(5, 0.5)
+
+        assertEquals(listOf(3, 5), heap.toSortedList().map { it.first })
+    }
+}